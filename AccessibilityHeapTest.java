@@ -2,9 +2,15 @@ package heap;
 import static org.junit.Assert.*;
 import org.junit.FixMethodOrder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
 
+import java.nio.channels.Channels;
+
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -12,6 +18,8 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.Scanner;
 
 import org.junit.Rule;
@@ -621,4 +629,806 @@ public class AccessibilityHeapTest {
             assertEquals(k, bpoll[k]);
         }
     }
+
+    ////////////////////////
+    // Bucket Queue Tests //
+    ////////////////////////
+
+    @Test
+    /** Test that a BucketHeap polls by level, and in insertion order within a level. */
+    public void test400BucketHeapOrder() {
+        BucketHeap<String,String> bh= new BucketHeap<String,String>(AccessibilityLevelHeap.LEVELS);
+        bh.add("141", "A");
+        bh.add("146", "AAA");
+        bh.add("143", "AA");
+        bh.add("111", "A");
+        bh.add("124", "AA");
+        assertEquals(5, bh.size());
+        assertEquals("141", bh.peek());
+        String[] expected= {"141", "111", "143", "124", "146"};
+        for (String e : expected) {
+            assertEquals(e, bh.poll());
+        }
+        assertEquals(0, bh.size());
+        try {
+            bh.poll();
+            fail("Polling an empty BucketHeap didn't throw an exception");
+        } catch (NoSuchElementException e) {
+            // This is supposed to happen
+        }
+    }
+
+    @Test
+    /** Test contains and changeAccessibilityPriority on a BucketHeap. */
+    public void test410BucketHeapChangePriority() {
+        BucketHeap<Integer,Integer> bh= BucketHeap.ofRange(0, 9);
+        for (int i= 0; i < 10; i++) {
+            bh.add(i, 9 - i);
+        }
+        assertTrue(bh.contains(3));
+        assertFalse(bh.contains(10));
+        bh.changeAccessibilityPriority(0, 0);   // 0 goes behind 9 in bucket 0
+        bh.changeAccessibilityPriority(9, 9);   // moves 9 out of bucket 0
+        bh.changeAccessibilityPriority(8, 8);   // moves 8 out of bucket 1
+        bh.changeAccessibilityPriority(8, 8);   // no change
+        assertEquals(0, (int)bh.poll());
+        for (int i= 7; i >= 1; i--) {
+            assertEquals(i, (int)bh.poll());
+        }
+        assertEquals(8, (int)bh.poll());
+        assertEquals(9, (int)bh.poll());
+        assertFalse(bh.contains(3));
+
+        try {
+            bh.changeAccessibilityPriority(3, 1);
+            fail("Changing priority of a nonexistent element didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+    }
+
+    @Test
+    /** Test that a BucketHeap rejects duplicate values and priorities outside its domain. */
+    public void test420BucketHeapIllegalArguments() {
+        BucketHeap<String,String> bh= new BucketHeap<String,String>(AccessibilityLevelHeap.LEVELS);
+        bh.add("111", "A");
+        try {
+            bh.add("111", "AA");
+            fail("Adding an existing element didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+        try {
+            bh.add("336", "(All)");
+            fail("Adding a priority outside the domain didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+        try {
+            new BucketHeap<String,String>(new String[] {"AA", "A"});
+            fail("A domain that is not increasing didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+        assertEquals(1, bh.size());
+    }
+
+    @Test
+    /** Test a BucketHeap with a large domain against a TreeMap, including
+     *  polls that alternate between the two ends of the domain. */
+    public void test421BucketHeapLargeDomain() {
+        BucketHeap<Integer,Integer> bh= BucketHeap.ofRange(0, 1000000);
+        for (int k= 0; k < 2000; k++) {
+            bh.add(2 * k, 0);
+            bh.add(2 * k + 1, 1000000);
+            assertEquals(2 * k, (int)bh.poll());
+            assertEquals(2 * k + 1, (int)bh.poll());
+        }
+        assertEquals(0, bh.size());
+
+        Random rand= new Random(42);
+        TreeMap<Integer,ArrayList<Integer>> model= new TreeMap<Integer,ArrayList<Integer>>();
+        for (int k= 0; k < 20000; k++) {
+            if (rand.nextInt(3) > 0 || model.isEmpty()) {
+                int p= rand.nextInt(1000001);
+                bh.add(k, p);
+                model.computeIfAbsent(p, x -> new ArrayList<Integer>()).add(k);
+            } else {
+                Map.Entry<Integer,ArrayList<Integer>> first= model.firstEntry();
+                assertEquals(first.getValue().remove(0), bh.poll());
+                if (first.getValue().isEmpty()) model.remove(first.getKey());
+            }
+        }
+        try {
+            BucketHeap.ofRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            fail("A range too large for an array didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+    }
+
+    //////////////////
+    // Reload Tests //
+    //////////////////
+
+    /** Write lines to file, replacing its contents. */
+    private static void writeLines(File file, String... lines) throws IOException {
+        try (PrintWriter out= new PrintWriter(file)) {
+            for (String line : lines) out.println(line);
+        }
+    }
+
+    @Test
+    /** Test that a reload applies only the differences with the heap. */
+    public void test430ReloadDiff() throws IOException {
+        File file= File.createTempFile("guidelines", ".txt");
+        file.deleteOnExit();
+        writeLines(file, "1.1.1 Non-text Content A", "1.2.4 Captions (Live) AA",
+                         "1.2.6 Sign Language (Prerecorded) AAA", "3.3.6 Error Prevention (All)");
+        Heap<String,String> mh= new Heap<String,String>();
+        GuidelineReloader r= new GuidelineReloader(mh, file.getPath());
+        assertEquals(3, r.reload());
+        checkPhase3(new String[]{"111", "124", "126"}, new String[]{"A", "AA", "AAA"}, mh);
+        assertEquals(0, r.reload());
+
+        // 1.1.1 is removed, 1.2.6 becomes A and 1.4.1 is new
+        writeLines(file, "1.2.4 Captions (Live) AA", "1.2.6 Sign Language (Prerecorded) A",
+                         "1.4.1 Use of Color A");
+        assertEquals(3, r.reload());
+        assertFalse(mh.contains("111"));
+        assertEquals(3, mh.size());
+        String first= mh.poll();
+        String second= mh.poll();
+        assertTrue(first.equals("126") && second.equals("141") || first.equals("141") && second.equals("126"));
+        assertEquals("124", mh.poll());
+    }
+
+    @Test
+    /** Test that a reloader takes the heap's contents as its starting point,
+     *  and does not bring back guidelines that were polled. */
+    public void test431ReloadExistingHeap() throws IOException {
+        File file= File.createTempFile("guidelines", ".txt");
+        file.deleteOnExit();
+        Heap<String,String> mh= new Heap<String,String>();
+        mh.add("111", "A");
+        mh.add("124", "AA");
+        GuidelineReloader r= new GuidelineReloader(mh, file.getPath());
+        assertEquals("111", mh.poll());
+
+        writeLines(file, "1.1.1 Non-text Content AAA", "1.2.4 Captions (Live) A");
+        assertEquals(2, r.reload());
+        checkPhase3(new String[]{"124"}, new String[]{"A"}, mh);
+    }
+
+    @Test
+    /** Test that a reload ignores a file that was truncated to be rewritten,
+     *  so that a guideline polled before the file is rewritten stays out. */
+    public void test432ReloadTruncatedFile() throws IOException {
+        File file= File.createTempFile("guidelines", ".txt");
+        file.deleteOnExit();
+        writeLines(file, "1.1.1 Non-text Content A", "1.2.4 Captions (Live) AA",
+                         "1.2.6 Sign Language (Prerecorded) AAA");
+        Heap<String,String> mh= new Heap<String,String>();
+        GuidelineReloader r= new GuidelineReloader(mh, file.getPath());
+        assertEquals(3, r.reload());
+
+        writeLines(file);
+        assertEquals(0, r.reload());
+        assertEquals(3, mh.size());
+
+        assertEquals("111", mh.poll());
+        writeLines(file, "1.1.1 Non-text Content A", "1.2.4 Captions (Live) AA",
+                         "1.2.6 Sign Language (Prerecorded) AA");
+        assertEquals(1, r.reload());
+        checkPhase3(new String[]{"124", "126"}, new String[]{"AA", "AA"}, mh);
+    }
+
+    @Test
+    /** Test that the watcher reloads once a rewrite of the file has finished. */
+    public void test433ReloadWatch() throws IOException, InterruptedException {
+        File file= File.createTempFile("guidelines", ".txt");
+        file.deleteOnExit();
+        writeLines(file, "1.1.1 Non-text Content A", "1.2.4 Captions (Live) AA");
+        Heap<String,String> mh= new Heap<String,String>();
+        GuidelineReloader r= new GuidelineReloader(mh, file.getPath());
+        r.reload();
+        assertEquals("111", mh.poll());
+        r.watch();
+        try {
+            writeLines(file);
+            writeLines(file, "1.1.1 Non-text Content A", "1.2.4 Captions (Live) AA",
+                             "1.4.1 Use of Color A");
+            for (int t= 0; t < 50; t++) {
+                synchronized (mh) {
+                    if (mh.size() == 2) break;
+                }
+                Thread.sleep(100);
+            }
+            synchronized (mh) {
+                assertFalse(mh.contains("111"));
+                assertEquals("141", mh.poll());
+                assertEquals("124", mh.poll());
+            }
+        } finally {
+            r.stop();
+        }
+    }
+
+    ///////////////////////
+    // Query Cache Tests //
+    ///////////////////////
+
+    @Test
+    /** Test the aggregate queries of a GuidelineQueryCache and its hit and miss counts. */
+    public void test440QueryCache() {
+        GuidelineQueryCache<String> qc= new GuidelineQueryCache<String>();
+        qc.add("111", "A");
+        qc.add("124", "AA");
+        qc.add("126", "AAA");
+        qc.add("211", "AA");
+        qc.add("212", "A");
+
+        assertEquals(2, qc.count("A"));
+        assertEquals(0, qc.count("B"));
+        assertEquals("111", qc.minimum('1'));
+        assertEquals("212", qc.minimum('2'));
+        assertEquals(null, qc.minimum('3'));
+        assertEquals(3, qc.misses());
+        assertEquals("111", qc.minimum('1'));
+        assertEquals(1, (int)qc.histogram().get("AAA"));
+        assertEquals(1, (int)qc.histogram().get("AAA"));
+        assertEquals(4, qc.misses());
+        assertEquals(2, qc.hits());
+
+        // Polling 111 drops only the answer for principle 1
+        assertEquals("111", qc.poll());
+        assertEquals("212", qc.minimum('2'));
+        assertEquals("124", qc.minimum('1'));
+        assertEquals(5, qc.misses());
+
+        // Adding to an empty principle and lowering a priority update the cache
+        qc.add("311", "AA");
+        qc.changeAccessibilityPriority("126", "A");
+        assertEquals("311", qc.minimum('3'));
+        assertEquals("126", qc.minimum('1'));
+        assertEquals(5, qc.misses());
+        assertEquals(2, (int)qc.histogram().get("A"));
+        assertEquals(null, qc.histogram().get("AAA"));
+    }
+
+    @Test
+    /** Test that cached answers agree with answers computed from scratch
+     *  over a random sequence of changes. */
+    public void test441QueryCacheRandom() {
+        Random rand= new Random(28);
+        GuidelineQueryCache<Integer> qc= new GuidelineQueryCache<Integer>();
+        HashMap<String, Integer> model= new HashMap<String, Integer>();
+        // Number of minimum questions, asked first thing after a change,
+        // that were still answered from the cache
+        int survived= 0;
+        for (int k= 0; k < 2000; k++) {
+            String v= (1 + rand.nextInt(4)) + "" + rand.nextInt(30);
+            int p= rand.nextInt(5);
+            int op= rand.nextInt(4);
+            if (op == 0 && !model.containsKey(v) || model.isEmpty()) {
+                if (!model.containsKey(v)) {
+                    qc.add(v, p);
+                    model.put(v, p);
+                }
+            } else if (op == 1 && model.containsKey(v)) {
+                qc.changeAccessibilityPriority(v, p);
+                model.put(v, p);
+            } else if (op == 2) {
+                model.remove(qc.poll());
+            } else if (model.containsKey(v)) {
+                qc.remove(v);
+                model.remove(v);
+            }
+
+            for (char principle= '1'; principle <= '4'; principle++) {
+                long hits= qc.hits();
+                String min= qc.minimum(principle);
+                if (qc.hits() > hits) survived++;
+                // Asking again before any change must be a hit
+                long misses= qc.misses();
+                assertEquals(min, qc.minimum(principle));
+                assertEquals(misses, qc.misses());
+                Integer best= null;
+                for (Map.Entry<String, Integer> e : model.entrySet()) {
+                    if (e.getKey().charAt(0) == principle && (best == null || e.getValue() < best)) {
+                        best= e.getValue();
+                    }
+                }
+                assertEquals(best, min == null ? null : model.get(min));
+            }
+            for (int p2= 0; p2 < 5; p2++) {
+                int n= 0;
+                for (int q : model.values()) if (q == p2) n++;
+                assertEquals(n, qc.count(p2));
+                assertEquals(n, (int)qc.histogram().getOrDefault(p2, 0));
+            }
+        }
+        assertTrue(survived > 2000);
+    }
+
+    ////////////////
+    // Soak Tests //
+    ////////////////
+
+    @Test
+    /** Test the linear-time invariant verifier on a large heap, and that it
+     *  notices a broken heap. */
+    public void test460Verify() {
+        Random rand= new Random(29);
+        Heap<Integer,Integer> mh= new Heap<Integer,Integer>();
+        for (int k= 0; k < 100000; k++) {
+            mh.add(k, rand.nextInt(1000));
+        }
+        HeapSoak.verify(mh);
+        for (int k= 0; k < 50000; k++) {
+            mh.poll();
+        }
+        HeapSoak.verify(mh);
+
+        mh.c.get(0).priority= 1000;
+        try {
+            HeapSoak.verify(mh);
+            fail("verify didn't notice a root with too large a priority");
+        } catch (AssertionError e) {
+            // This is supposed to happen
+        }
+    }
+
+    @Test
+    /** Test a mix of random operations against a reference model, checking
+     *  the invariants as it goes. */
+    public void test461Soak() {
+        HeapSoak.soak(52, 300000, 5000, 100, 10000);
+        HeapSoak.soak(53, 100000, 50, 3, 1000);
+    }
+
+    ///////////////////////
+    // Key Encoder Tests //
+    ///////////////////////
+
+    @Test
+    /** Test a heap that compares the keys of its priorities. */
+    public void test480KeyEncoder() {
+        Heap<String,String> mh= new Heap<String,String>(AccessibilityLevelHeap.LEVEL_KEYS);
+        mh.add("126", "AAA");
+        mh.add("124", "AA");
+        mh.add("111", "A");
+        mh.add("141", "AA");
+        checkPhase3(new String[]{"111", "141", "124", "126"}, new String[]{"A", "AA", "AA", "AAA"}, mh);
+        HeapSoak.verify(mh);
+        assertEquals(0, mh.c.get(0).key);
+
+        mh.changeAccessibilityPriority("126", "A");
+        mh.changeAccessibilityPriority("111", "AAA");
+        HeapSoak.verify(mh);
+        assertEquals("126", mh.poll());
+        assertEquals(1, mh.c.get(0).key);
+        assertEquals("AA", mh.c.get(0).priority);
+
+        // Strings that are not levels have no key that keeps the order
+        for (String bad : new String[] {"B", "(All)", "AAAA"}) {
+            try {
+                mh.add("999", bad);
+                fail("Adding priority " + bad + " didn't throw an exception");
+            } catch (IllegalArgumentException e) {
+                // This is supposed to happen
+            }
+        }
+        assertFalse(mh.contains("999"));
+    }
+
+    @Test
+    /** Test that a heap with a KeyEncoder polls in the same order as one without. */
+    public void test481KeyEncoderSameOrder() {
+        Random rand= new Random(30);
+        Heap<Integer,Double> plain= new Heap<Integer,Double>();
+        Heap<Integer,Double> keyed= new Heap<Integer,Double>(p -> (long)(p * 1000));
+        for (int k= 0; k < 5000; k++) {
+            double p= rand.nextInt(500) / 10.0;
+            plain.add(k, p);
+            keyed.add(k, p);
+        }
+        for (int k= 0; k < 5000; k += 7) {
+            double p= rand.nextInt(500) / 10.0;
+            plain.changeAccessibilityPriority(k, p);
+            keyed.changeAccessibilityPriority(k, p);
+        }
+        HeapSoak.verify(keyed);
+        while (plain.size() > 0) {
+            assertEquals(plain.poll(), keyed.poll());
+        }
+        assertEquals(0, keyed.size());
+    }
+
+    ////////////////////////
+    // Sharded Heap Tests //
+    ////////////////////////
+
+    @Test
+    /** Test that a ShardedHeap with one or two shards polls in exact order,
+     *  and test contains and changeAccessibilityPriority. */
+    public void test500ShardedHeapExact() {
+        for (int shards= 1; shards <= 2; shards++) {
+            ShardedHeap<Integer,Integer> sh= new ShardedHeap<Integer,Integer>(shards);
+            for (int k= 0; k < 100; k++) {
+                sh.add(k, 100 - k);
+            }
+            assertTrue(sh.contains(40));
+            assertFalse(sh.contains(100));
+            sh.changeAccessibilityPriority(40, 0);
+            sh.changeAccessibilityPriority(99, 200);
+            assertEquals(40, (int)sh.poll());
+            for (int k= 98; k >= 0; k--) {
+                if (k != 40) assertEquals(k, (int)sh.poll());
+            }
+            assertEquals(99, (int)sh.poll());
+            assertEquals(0, sh.size());
+            assertFalse(sh.contains(40));
+            try {
+                sh.poll();
+                fail("Polling an empty ShardedHeap didn't throw an exception");
+            } catch (NoSuchElementException e) {
+                // This is supposed to happen
+            }
+        }
+    }
+
+    @Test
+    /** Test that a ShardedHeap rejects duplicate values, across shards too. */
+    public void test510ShardedHeapIllegalArguments() {
+        ShardedHeap<String,Integer> sh= new ShardedHeap<String,Integer>(4);
+        sh.add("a", 1, 0);
+        try {
+            sh.add("a", 1, 3);
+            fail("Adding an existing element didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+        try {
+            sh.changeAccessibilityPriority("b", 1);
+            fail("Changing priority of a nonexistent element didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+        assertEquals(1, sh.size());
+    }
+
+    @Test
+    /** Test that a priority the KeyEncoder rejects leaves a ShardedHeap unchanged. */
+    public void test511ShardedHeapRejectedPriority() {
+        ShardedHeap<String,String> sh= new ShardedHeap<String,String>(4, AccessibilityLevelHeap.LEVEL_KEYS);
+        try {
+            sh.add("x", "B");
+            fail("Adding a priority the encoder rejects didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+        assertFalse(sh.contains("x"));
+        assertEquals(0, sh.size());
+
+        sh.add("x", "AA", 2);
+        try {
+            sh.changeAccessibilityPriority("x", "B");
+            fail("Changing to a priority the encoder rejects didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+        sh.add("y", "A", 2);
+        assertEquals(2, sh.size());
+        assertEquals("y", sh.poll());
+        assertEquals("x", sh.poll());
+        assertEquals(0, sh.size());
+    }
+
+    @Test
+    /** Test that each value added by several threads is polled exactly once. */
+    public void test520ShardedHeapThreads() throws InterruptedException {
+        ShardedHeap<Integer,Integer> sh= new ShardedHeap<Integer,Integer>(8);
+        int perThread= 20000;
+        boolean[] polled= new boolean[4 * perThread];
+        // The first failure in a worker thread, reported by this thread
+        AtomicReference<Throwable> failure= new AtomicReference<Throwable>();
+        Thread[] workers= new Thread[4];
+        for (int t= 0; t < workers.length; t++) {
+            int base= t * perThread;
+            workers[t]= new Thread(() -> {
+              try {
+                Random rand= new Random(base);
+                for (int i= 0; i < perThread; i++) {
+                    sh.add(base + i, rand.nextInt(1000));
+                    if (i % 10 == 9 && sh.contains(base + i - 5)) {
+                        try {
+                            sh.changeAccessibilityPriority(base + i - 5, rand.nextInt(1000));
+                        } catch (IllegalArgumentException e) {
+                            // Another thread polled it first
+                        }
+                    }
+                    if (i % 2 == 1) {
+                        int v= sh.poll();
+                        synchronized (polled) {
+                            assertFalse(polled[v]);
+                            polled[v]= true;
+                        }
+                    }
+                }
+              } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+              }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+        if (failure.get() != null) {
+            throw new AssertionError("A worker thread failed", failure.get());
+        }
+        assertEquals(2 * perThread, sh.size());
+        while (sh.size() > 0) {
+            int v= sh.poll();
+            assertFalse(polled[v]);
+            polled[v]= true;
+        }
+        for (boolean b : polled) assertTrue(b);
+    }
+
+    //////////////////
+    // Export Tests //
+    //////////////////
+
+    @Test
+    /** Test that a CSV export lists a heap in poll order and leaves it unchanged. */
+    public void test530ExportCsv() throws IOException {
+        Random rand= new Random(32);
+        Heap<Integer,Integer> mh= new Heap<Integer,Integer>();
+        Heap<Integer,Integer> copy= new Heap<Integer,Integer>();
+        int[] priority= new int[2000];
+        for (int k= 0; k < 2000; k++) {
+            priority[k]= rand.nextInt(50);
+            mh.add(k, priority[k]);
+            copy.add(k, priority[k]);
+        }
+
+        ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+        new ReportExporter(16).exportCsv(mh, Channels.newChannel(bytes));
+        String[] lines= bytes.toString("UTF-8").split("\n");
+        assertEquals(2001, lines.length);
+        assertEquals("value,priority", lines[0]);
+        for (int k= 1; k < lines.length; k++) {
+            int v= copy.poll();
+            assertEquals(v + "," + priority[v], lines[k]);
+        }
+        assertEquals(2000, mh.size());
+        HeapSoak.verify(mh);
+    }
+
+    @Test
+    /** Test a JSON export, including characters that must be escaped or quoted. */
+    public void test531ExportJson() throws IOException {
+        Heap<String,String> mh= new Heap<String,String>();
+        mh.add("say \"hi\"", "AA");
+        mh.add("a,b", "A");
+        mh.add("\u00e9t\u00e9", "AAA");
+
+        ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+        new ReportExporter().exportJson(mh, Channels.newChannel(bytes));
+        assertEquals("[\n  {\"value\": \"a,b\", \"priority\": \"A\"},"
+                     + "\n  {\"value\": \"say \\\"hi\\\"\", \"priority\": \"AA\"},"
+                     + "\n  {\"value\": \"\u00e9t\u00e9\", \"priority\": \"AAA\"}\n]\n",
+                     bytes.toString("UTF-8"));
+
+        bytes.reset();
+        new ReportExporter(16).exportCsv(mh, Channels.newChannel(bytes));
+        assertEquals("value,priority\n\"a,b\",A\n\"say \"\"hi\"\"\",AA\n\u00e9t\u00e9,AAA\n",
+                     bytes.toString("UTF-8"));
+        assertEquals(3, mh.size());
+
+        bytes.reset();
+        new ReportExporter().exportJson(new Heap<String,String>(), Channels.newChannel(bytes));
+        assertEquals("[\n]\n", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    /** Test exporting a snapshot of a SnapshotHeap while the heap changes. */
+    public void test532ExportSnapshot() throws IOException {
+        Random rand= new Random(33);
+        SnapshotHeap<Integer,Integer> sh= new SnapshotHeap<Integer,Integer>();
+        int[] priority= new int[2000];
+        for (int k= 0; k < 2000; k++) {
+            priority[k]= rand.nextInt(50);
+            sh.add(k, priority[k]);
+        }
+        SnapshotHeap.Snapshot<Integer,Integer> s= sh.snapshot();
+        for (int k= 0; k < 500; k++) sh.poll();
+        sh.add(5000, -1);
+
+        ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+        new ReportExporter(16).exportCsv(s, Channels.newChannel(bytes));
+        String[] lines= bytes.toString("UTF-8").split("\n");
+        assertEquals(2001, lines.length);
+        assertEquals("value,priority", lines[0]);
+        boolean[] seen= new boolean[2000];
+        int last= Integer.MIN_VALUE;
+        for (int k= 1; k < lines.length; k++) {
+            String[] f= lines[k].split(",");
+            int v= Integer.parseInt(f[0]);
+            int p= Integer.parseInt(f[1]);
+            assertFalse(seen[v]);
+            seen[v]= true;
+            assertEquals(priority[v], p);
+            assertTrue(last <= p);
+            last= p;
+        }
+        assertEquals(1501, sh.size());
+
+        SnapshotHeap<String,String> small= new SnapshotHeap<String,String>();
+        small.add("a,b", "AA");
+        small.add("111", "A");
+        bytes.reset();
+        new ReportExporter().exportJson(small.snapshot(), Channels.newChannel(bytes));
+        assertEquals("[\n  {\"value\": \"111\", \"priority\": \"A\"},"
+                     + "\n  {\"value\": \"a,b\", \"priority\": \"AA\"}\n]\n",
+                     bytes.toString("UTF-8"));
+    }
+
+    ////////////////////
+    // Snapshot Tests //
+    ////////////////////
+
+    @Test
+    /** Test that a snapshot keeps showing the heap as it was when it was taken. */
+    public void test540Snapshot() {
+        SnapshotHeap<String,String> sh= new SnapshotHeap<String,String>();
+        sh.add("126", "AAA");
+        sh.add("124", "AA");
+        sh.add("111", "A");
+        SnapshotHeap.Snapshot<String,String> s1= sh.snapshot();
+
+        assertEquals("111", sh.poll());
+        sh.changeAccessibilityPriority("126", "A");
+        sh.add("141", "A");
+        SnapshotHeap.Snapshot<String,String> s2= sh.snapshot();
+        sh.remove("124");
+
+        assertEquals(3, s1.size());
+        assertEquals("111", s1.peek());
+        assertTrue(s1.contains("111"));
+        assertFalse(s1.contains("141"));
+        Iterator<String> it= s1.iterator();
+        assertEquals("111", it.next());
+        assertEquals("124", it.next());
+        assertEquals("126", it.next());
+        assertFalse(it.hasNext());
+
+        assertEquals(3, s2.size());
+        assertTrue(s2.contains("124"));
+        assertFalse(s2.contains("111"));
+        assertTrue(s2.peek().equals("126") || s2.peek().equals("141"));
+        assertEquals("AAA", s1.priority("126"));
+        assertEquals("A", s2.priority("126"));
+        try {
+            s2.priority("111");
+            fail("Asking for the priority of a value not in the snapshot didn't throw an exception");
+        } catch (IllegalArgumentException e) {
+            // This is supposed to happen
+        }
+
+        assertEquals(2, sh.size());
+        assertFalse(sh.contains("124"));
+        try {
+            new SnapshotHeap<String,String>().snapshot().peek();
+            fail("Peek didn't throw an exception when the snapshot is empty.");
+        } catch (NoSuchElementException e) {
+            // This is supposed to happen
+        }
+    }
+
+    @Test
+    /** Test many snapshots taken during a random sequence of changes against
+     *  copies of a reference model taken at the same times. */
+    public void test541SnapshotRandom() {
+        Random rand= new Random(33);
+        SnapshotHeap<Integer,Integer> sh= new SnapshotHeap<Integer,Integer>();
+        HashMap<Integer,Integer> model= new HashMap<Integer,Integer>();
+        ArrayList<SnapshotHeap.Snapshot<Integer,Integer>> snaps= new ArrayList<>();
+        ArrayList<HashMap<Integer,Integer>> models= new ArrayList<>();
+        for (int k= 0; k < 20000; k++) {
+            int v= rand.nextInt(3000);
+            int p= rand.nextInt(100);
+            int op= rand.nextInt(10);
+            if (op < 5 && !model.containsKey(v)) {
+                sh.add(v, p);
+                model.put(v, p);
+            } else if (op < 7 && model.containsKey(v)) {
+                sh.changeAccessibilityPriority(v, p);
+                model.put(v, p);
+            } else if (op < 9 && !model.isEmpty()) {
+                int polled= sh.poll();
+                int q= model.remove(polled);
+                for (int r : model.values()) assertTrue(q <= r);
+            } else if (model.containsKey(v)) {
+                sh.remove(v);
+                model.remove(v);
+            }
+            if (k % 1000 == 0) {
+                snaps.add(sh.snapshot());
+                models.add(new HashMap<Integer,Integer>(model));
+            }
+        }
+
+        for (int i= 0; i < snaps.size(); i++) {
+            SnapshotHeap.Snapshot<Integer,Integer> s= snaps.get(i);
+            HashMap<Integer,Integer> m= models.get(i);
+            assertEquals(m.size(), s.size());
+            for (int v= 0; v < 3000; v++) {
+                assertEquals(m.containsKey(v), s.contains(v));
+            }
+            int prev= -1;
+            int n= 0;
+            for (int v : s) {
+                assertTrue(prev <= m.get(v));
+                prev= m.get(v);
+                n++;
+            }
+            assertEquals(m.size(), n);
+        }
+    }
+
+    @Test
+    /** Test that a change after a snapshot copies only the chunks it touches. */
+    public void test542SnapshotCopiesFewChunks() {
+        SnapshotHeap<Integer,Integer> sh= new SnapshotHeap<Integer,Integer>();
+        for (int k= 0; k < 100000; k++) {
+            sh.add(k, k);
+        }
+        SnapshotHeap.Snapshot<Integer,Integer> s= sh.snapshot();
+        sh.changeAccessibilityPriority(99999, -1);
+        // 99999 bubbles up through 17 levels, but the top levels share chunks.
+        // The 3125 chunks need a directory of depth 3, and the paths to the
+        // copied chunks share their upper directory nodes.
+        assertTrue(sh.chunkCopies <= 17);
+        assertTrue(sh.dirCopies <= 3 * sh.chunkCopies);
+        assertEquals(99999, (int)sh.peek());
+        assertEquals(0, (int)s.peek());
+
+        // A write that moves nothing copies one chunk and one directory node
+        // per level, not the whole directory.
+        sh.snapshot();
+        long chunks= sh.chunkCopies;
+        long dirs= sh.dirCopies;
+        sh.changeAccessibilityPriority(50000, 50000);
+        assertEquals(chunks + 1, sh.chunkCopies);
+        assertEquals(dirs + 3, sh.dirCopies);
+    }
+
+    @Test
+    /** Test a SnapshotHeap whose values all have the same hash code. */
+    public void test543SnapshotHashCollisions() {
+        // "Aa" and "BB" have the same hash code, so all these strings do too
+        String[] values= new String[64];
+        for (int k= 0; k < values.length; k++) {
+            StringBuilder b= new StringBuilder();
+            for (int bit= 0; bit < 6; bit++) b.append((k >> bit & 1) == 0 ? "Aa" : "BB");
+            values[k]= b.toString();
+        }
+        SnapshotHeap<String,Integer> sh= new SnapshotHeap<String,Integer>();
+        for (int k= 0; k < values.length; k++) {
+            sh.add(values[k], values.length - k);
+        }
+        SnapshotHeap.Snapshot<String,Integer> s= sh.snapshot();
+        for (int k= values.length - 1; k >= 32; k--) {
+            assertEquals(values[k], sh.poll());
+        }
+        for (int k= 0; k < values.length; k++) {
+            assertTrue(s.contains(values[k]));
+            assertEquals(k < 32, sh.contains(values[k]));
+        }
+        int k= values.length;
+        for (String v : s) {
+            assertEquals(values[--k], v);
+        }
+    }
 }
@@ -6,6 +6,35 @@ import java.util.ArrayList;
 
 public class AccessibilityLevelHeap {
 
+	// The conformance levels, from most to least essential. As Strings they
+	// are already in increasing order, so they can be used as priorities.
+	public static final String[] LEVELS = {"A", "AA", "AAA"};
+
+	// Order-preserving keys for LEVELS, for a Heap created with a KeyEncoder:
+	// the key of a level is its position in LEVELS. Any other String throws
+	// an IllegalArgumentException, since it has no key that keeps the order.
+	public static final KeyEncoder<String> LEVEL_KEYS = level -> {
+		for (int i = 0; i < LEVELS.length; i++) {
+			if (LEVELS[i].equals(level)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Priority " + level + " is not one of the levels");
+	};
+
+	/** Return the conformance level at the end of the title of guideline,
+	 *  as stored by GetAccessibilityGuidelines, or null if the title does not
+	 *  end in one of LEVELS. */
+	public static String GetAccessibilityLevel(String[] guideline) {
+		String title = guideline[1].trim();
+		String level = title.substring(title.lastIndexOf(' ') + 1);
+		for (String l : LEVELS) {
+			if (l.equals(level)) {
+				return l;
+			}
+		}
+		return null;
+	}
 
 	// TODO 2.0: read and understand the function below.
     public static String[][] GetAccessibilityGuidelines(String filePath) throws FileNotFoundException {
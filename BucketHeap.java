@@ -0,0 +1,251 @@
+package heap;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+/** An instance is a min-heap of distinct values of type V whose priorities
+ *  come from a small domain of type P that is declared up front, such as the
+ *  levels A, AA and AAA. Each priority in the domain has its own bucket, so
+ *  no comparisons are needed: add, contains and changeAccessibilityPriority
+ *  take constant time. The non-empty buckets are marked in a bitmap with one
+ *  bit per bucket, summarized by smaller bitmaps with one bit per word of the
+ *  level below, so peek and poll find the lowest non-empty bucket in
+ *  O(log_64 d) steps for a domain of size d: one step for the levels, and at
+ *  most six for any domain an array can hold.
+ *  Values with equal priorities leave the heap in the order they entered it.
+ *
+ *  Use a BucketHeap instead of a Heap when the priorities are known to come
+ *  from such a domain; the caller chooses by constructing one. */
+public final class BucketHeap<V, P extends Comparable<P>> {
+
+    /**
+     * Bucket i holds the values whose priority is domain[i], as a doubly-linked
+     * list from head[i] to tail[i] in the order the values were put there.
+     *
+     * Class Invariants:
+     *   1. domain is sorted in strictly increasing order and bucketOf maps
+     *      domain[i] to i.
+     *   2. The heap cannot contain duplicate *values*; priorities may repeat.
+     *   3. map contains one entry for each value in the heap, so
+     *      map.size() == size
+     *   4. For each value v in the heap, map.get(v) is the node of v, and
+     *      that node is in bucket map.get(v).bucket.
+     *   5. Bit i of occupied[0] (bit i % 64 of occupied[0][i / 64]) is set
+     *      exactly when bucket i is not empty, and for l > 0, bit w of
+     *      occupied[l] is set exactly when occupied[l-1][w] != 0.
+     *      occupied[occupied.length-1] has a single word.
+     */
+    protected final P[] domain;
+    protected final HashMap<P, Integer> bucketOf;
+    protected final Node[] head;
+    protected final Node[] tail;
+    protected final HashMap<V, Node> map;
+    protected int size;
+    protected final long[][] occupied;
+
+    /** Constructor: an empty heap whose priorities are the elements of
+     *  domain, given in increasing order.
+     *  @throws IllegalArgumentException if domain is empty, contains null,
+     *  or is not strictly increasing. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BucketHeap(P[] domain) throws IllegalArgumentException {
+        if (domain.length == 0) {
+            throw new IllegalArgumentException("The priority domain is empty");
+        }
+        this.domain = domain.clone();
+        bucketOf = new HashMap<P, Integer>();
+        for (int i = 0; i < this.domain.length; i++) {
+            if (this.domain[i] == null) {
+                throw new IllegalArgumentException("The priority domain contains null");
+            }
+            if (i > 0 && this.domain[i - 1].compareTo(this.domain[i]) >= 0) {
+                throw new IllegalArgumentException("The priority domain is not strictly increasing");
+            }
+            bucketOf.put(this.domain[i], i);
+        }
+        head = (Node[]) new BucketHeap.Node[this.domain.length];
+        tail = (Node[]) new BucketHeap.Node[this.domain.length];
+        map = new HashMap<V, Node>();
+
+        int levels = 1;
+        for (int n = this.domain.length; n > 64; n = (n + 63) >>> 6) {
+            levels++;
+        }
+        occupied = new long[levels][];
+        for (int l = 0, n = this.domain.length; l < levels; l++) {
+            n = (n + 63) >>> 6;
+            occupied[l] = new long[n];
+        }
+    }
+
+    /** Return an empty heap whose priorities are the integers lo..hi.
+     *  @throws IllegalArgumentException if hi < lo, or if the range has too
+     *  many integers to give each its own bucket. */
+    public static <V> BucketHeap<V, Integer> ofRange(int lo, int hi) throws IllegalArgumentException {
+        if (hi < lo) {
+            throw new IllegalArgumentException("The priority range " + lo + ".." + hi + " is empty");
+        }
+        if ((long) hi - lo >= Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The priority range " + lo + ".." + hi + " is too large");
+        }
+        Integer[] domain = new Integer[hi - lo + 1];
+        for (int i = 0; i < domain.length; i++) {
+            domain[i] = lo + i;
+        }
+        return new BucketHeap<V, Integer>(domain);
+    }
+
+    /** A Node is a value in a bucket, linked to its neighbours in that bucket. */
+    class Node {
+        public V value;
+        public int bucket;
+        Node prev;
+        Node next;
+
+        /** A Node with value v in bucket b */
+        Node(V v, int b) {
+            value = v;
+            bucket = b;
+        }
+
+        public String toString() {
+            return value.toString();
+        }
+    }
+
+    /** Add v with priority p to the heap. This operation takes constant time.
+     *  @throws IllegalArgumentException if v is already in the heap or p is
+     *  not in the declared priority domain. */
+    public void add(V v, P p) throws IllegalArgumentException {
+        if (map.containsKey(v)) {
+            throw new IllegalArgumentException("Value " + v + " is already in the heap");
+        }
+        Node n = new Node(v, bucketIndex(p));
+        append(n);
+        map.put(v, n);
+        size++;
+    }
+
+    /** Return the number of values in this heap.
+     *  This operation takes constant time. */
+    public int size() {
+        return size;
+    }
+
+    /** Return the value of this heap with lowest priority. Do not
+     *  change the heap. This operation takes O(log_64 d) time for a domain
+     *  of size d.
+     *  @throws NoSuchElementException if the heap is empty. */
+    public V peek() throws NoSuchElementException {
+        return head[lowestBucket()].value;
+    }
+
+    /** Remove and return the element of this heap with lowest priority.
+     *  This operation takes O(log_64 d) time for a domain of size d.
+     *  @throws NoSuchElementException if the heap is empty. */
+    public V poll() throws NoSuchElementException {
+        Node n = head[lowestBucket()];
+        unlink(n);
+        map.remove(n.value);
+        size--;
+        return n.value;
+    }
+
+    /** Return true if the value v is in the heap, false otherwise.
+     *  The average case runtime is O(1).  */
+    public boolean contains(V v) {
+        return map.containsKey(v);
+    }
+
+    /** Change the priority of value v to p. This operation takes constant
+     *  time. If p is v's current priority, v keeps its place in its bucket;
+     *  otherwise v goes behind the values that already have priority p.
+     *  @throws IllegalArgumentException if v is not in the heap or p is not
+     *  in the declared priority domain. */
+    public void changeAccessibilityPriority(V v, P p) throws IllegalArgumentException {
+        Node n = map.get(v);
+        if (n == null) {
+            throw new IllegalArgumentException("Value " + v + " is not in the heap");
+        }
+        int b = bucketIndex(p);
+        if (b == n.bucket) return;
+        unlink(n);
+        n.bucket = b;
+        append(n);
+    }
+
+    /** Return the bucket of priority p.
+     *  @throws IllegalArgumentException if p is not in the domain. */
+    private int bucketIndex(P p) throws IllegalArgumentException {
+        Integer b = bucketOf.get(p);
+        if (b == null) {
+            throw new IllegalArgumentException("Priority " + p + " is not in the declared domain");
+        }
+        return b;
+    }
+
+    /** Return the index of the first non-empty bucket, found by following
+     *  the lowest set bit from the top level of occupied down to level 0.
+     *  @throws NoSuchElementException if the heap is empty. */
+    private int lowestBucket() throws NoSuchElementException {
+        if (size == 0) {
+            throw new NoSuchElementException("The heap is empty");
+        }
+        int i = 0;
+        for (int l = occupied.length - 1; l >= 0; l--) {
+            i = (i << 6) + Long.numberOfTrailingZeros(occupied[l][i]);
+        }
+        return i;
+    }
+
+    /** Mark bucket b as not empty in occupied. */
+    private void mark(int b) {
+        for (int l = 0; l < occupied.length; l++) {
+            long word = occupied[l][b >>> 6];
+            occupied[l][b >>> 6] = word | (1L << b);
+            if (word != 0) return;
+            b >>>= 6;
+        }
+    }
+
+    /** Mark bucket b as empty in occupied. */
+    private void unmark(int b) {
+        for (int l = 0; l < occupied.length; l++) {
+            long word = occupied[l][b >>> 6] & ~(1L << b);
+            occupied[l][b >>> 6] = word;
+            if (word != 0) return;
+            b >>>= 6;
+        }
+    }
+
+    /** Put n at the end of bucket n.bucket. */
+    private void append(Node n) {
+        n.prev = tail[n.bucket];
+        n.next = null;
+        if (n.prev == null) {
+            head[n.bucket] = n;
+            mark(n.bucket);
+        } else {
+            n.prev.next = n;
+        }
+        tail[n.bucket] = n;
+    }
+
+    /** Take n out of bucket n.bucket. */
+    private void unlink(Node n) {
+        if (n.prev == null) {
+            head[n.bucket] = n.next;
+            if (n.next == null) {
+                unmark(n.bucket);
+            }
+        } else {
+            n.prev.next = n.next;
+        }
+        if (n.next == null) {
+            tail[n.bucket] = n.prev;
+        } else {
+            n.next.prev = n.prev;
+        }
+        n.prev = null;
+        n.next = null;
+    }
+}
@@ -0,0 +1,195 @@
+package heap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/** An instance is a heap of guidelines that also answers aggregate
+ *  questions about its contents: how many guidelines have a given priority,
+ *  the histogram of all priorities, and the guideline with the smallest
+ *  priority in each principle. The values are guideline indices, as produced
+ *  by GetAccessibilityGuidelines; the principle of a guideline is the first
+ *  digit of its index.
+ *
+ *  Counts are kept up to date by every change to the heap. The histogram and
+ *  the minimum of each principle are cached; add, poll, remove and
+ *  changeAccessibilityPriority update the cached answers they can and drop
+ *  only the ones they affect, so a question asked again before the heap
+ *  changes is answered in constant time. All changes to the heap must go
+ *  through this class. */
+public class GuidelineQueryCache<P extends Comparable<P>> {
+
+    /** The heap holding the guidelines. */
+    private final Heap<String, P> heap;
+    /** The priority of each guideline in the heap. */
+    private final HashMap<String, P> priorities;
+    /** The number of guidelines in the heap with each priority; priorities
+     *  with no guidelines have no entry. */
+    private final HashMap<P, Integer> counts;
+    /** The cached histogram, or null if it must be rebuilt from counts. */
+    private Map<P, Integer> histogram;
+    /** For each principle with a cached answer, a guideline with the smallest
+     *  priority in that principle, or null if the principle has none. */
+    private final HashMap<Character, String> minimums;
+    /** Number of histogram and minimum questions answered from the cache,
+     *  and number that had to be computed. count is not cached, so it is
+     *  not included. */
+    private long hits;
+    private long misses;
+
+    /** Constructor: an empty heap of guidelines with no cached answers. */
+    public GuidelineQueryCache() {
+        heap = new Heap<String, P>();
+        priorities = new HashMap<>();
+        counts = new HashMap<>();
+        minimums = new HashMap<>();
+    }
+
+    /** Return the principle of guideline id: the first digit of its index. */
+    public static char principleOf(String id) {
+        return id.charAt(0);
+    }
+
+    /** Add guideline v with priority p to the heap.
+     *  @throws IllegalArgumentException if v is already in the heap. */
+    public void add(String v, P p) throws IllegalArgumentException {
+        heap.add(v, p);
+        priorities.put(v, p);
+        adjustCount(p, 1);
+        char principle = principleOf(v);
+        if (minimums.containsKey(principle)) {
+            String min = minimums.get(principle);
+            if (min == null || p.compareTo(priorities.get(min)) < 0) {
+                minimums.put(principle, v);
+            }
+        }
+    }
+
+    /** Return the number of guidelines in this heap. */
+    public int size() {
+        return heap.size();
+    }
+
+    /** Return the guideline of this heap with lowest priority.
+     *  @throws NoSuchElementException if the heap is empty. */
+    public String peek() throws NoSuchElementException {
+        return heap.peek();
+    }
+
+    /** Remove and return the guideline of this heap with lowest priority.
+     *  @throws NoSuchElementException if the heap is empty. */
+    public String poll() throws NoSuchElementException {
+        String v = heap.poll();
+        forget(v);
+        return v;
+    }
+
+    /** Remove guideline v from the heap.
+     *  @throws IllegalArgumentException if v is not in the heap. */
+    public void remove(String v) throws IllegalArgumentException {
+        heap.remove(v);
+        forget(v);
+    }
+
+    /** Return true if guideline v is in the heap, false otherwise. */
+    public boolean contains(String v) {
+        return heap.contains(v);
+    }
+
+    /** Change the priority of guideline v to p.
+     *  @throws IllegalArgumentException if v is not in the heap. */
+    public void changeAccessibilityPriority(String v, P p) throws IllegalArgumentException {
+        heap.changeAccessibilityPriority(v, p);
+        P old = priorities.put(v, p);
+        if (!old.equals(p)) {
+            adjustCount(old, -1);
+            adjustCount(p, 1);
+        }
+        char principle = principleOf(v);
+        if (minimums.containsKey(principle)) {
+            String min = minimums.get(principle);
+            if (min.equals(v)) {
+                // v stays the minimum unless its priority went up.
+                if (p.compareTo(old) > 0) {
+                    minimums.remove(principle);
+                }
+            } else if (p.compareTo(priorities.get(min)) < 0) {
+                minimums.put(principle, v);
+            }
+        }
+    }
+
+    /** Return the number of guidelines in the heap with priority p.
+     *  This operation takes constant time. */
+    public int count(P p) {
+        Integer n = counts.get(p);
+        return n == null ? 0 : n;
+    }
+
+    /** Return an unmodifiable map from each priority in the heap to the
+     *  number of guidelines with that priority. The map is rebuilt only if
+     *  the counts changed since the last call. */
+    public Map<P, Integer> histogram() {
+        if (histogram != null) {
+            hits++;
+        } else {
+            misses++;
+            histogram = Collections.unmodifiableMap(new HashMap<>(counts));
+        }
+        return histogram;
+    }
+
+    /** Return a guideline with the smallest priority in principle, or null if
+     *  there is none. The answer is recomputed, in time linear in the size of
+     *  the heap, only if a change since the last call could have affected it. */
+    public String minimum(char principle) {
+        if (minimums.containsKey(principle)) {
+            hits++;
+            return minimums.get(principle);
+        }
+        misses++;
+        String min = null;
+        for (Map.Entry<String, P> e : priorities.entrySet()) {
+            if (principleOf(e.getKey()) == principle
+                    && (min == null || e.getValue().compareTo(priorities.get(min)) < 0)) {
+                min = e.getKey();
+            }
+        }
+        minimums.put(principle, min);
+        return min;
+    }
+
+    /** Return the number of histogram and minimum questions answered from
+     *  the cache. */
+    public long hits() {
+        return hits;
+    }
+
+    /** Return the number of histogram and minimum questions whose answers
+     *  had to be computed. */
+    public long misses() {
+        return misses;
+    }
+
+    /** Update the counts and caches for guideline v, which has left the heap. */
+    private void forget(String v) {
+        P p = priorities.remove(v);
+        adjustCount(p, -1);
+        char principle = principleOf(v);
+        if (minimums.containsKey(principle) && v.equals(minimums.get(principle))) {
+            minimums.remove(principle);
+        }
+    }
+
+    /** Add delta to the number of guidelines with priority p, and drop the
+     *  cached histogram. */
+    private void adjustCount(P p, int delta) {
+        int n = counts.getOrDefault(p, 0) + delta;
+        if (n == 0) {
+            counts.remove(p);
+        } else {
+            counts.put(p, n);
+        }
+        histogram = null;
+    }
+}
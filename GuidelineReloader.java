@@ -0,0 +1,189 @@
+package heap;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** An instance keeps a heap of guidelines in step with a guideline file.
+ *  The heap's values are guideline indices, as produced by
+ *  GetAccessibilityGuidelines, and its priorities are their levels.
+ *
+ *  A reload parses the file again and compares it, by index, with what is in
+ *  the heap. Only the differences are applied, using add,
+ *  changeAccessibilityPriority and remove, so the heap work is proportional
+ *  to the number of guidelines that changed; reading the file is still linear
+ *  in its length. The differences are worked out without touching the heap,
+ *  and are then applied while holding the heap's lock. Code that reads the
+ *  heap while a reloader may be running should hold the same lock, i.e.
+ *  synchronize on the heap; it then sees the heap either before or after a
+ *  reload, never in between.
+ *
+ *  A file that is being rewritten is usually first truncated and then
+ *  written in pieces, and each step is reported as a change. A reload in
+ *  between would see too few guidelines, remove the others from the heap,
+ *  and put them back later, even the ones that were polled. So the watcher
+ *  waits until the file has not changed for QUIET_MILLIS before reloading,
+ *  and a reload ignores a file that is empty. */
+public class GuidelineReloader {
+
+    /** How long the file must go without changing, in milliseconds, before
+     *  the watcher reloads it. */
+    public static final long QUIET_MILLIS = 200;
+
+    /** The heap being kept up to date. */
+    private final Heap<String, String> heap;
+    /** The guideline file. */
+    private final Path file;
+    /** The level of each guideline as of the last reload. Guidelines whose
+     *  titles do not end in a level are left out. */
+    private HashMap<String, String> loaded;
+    /** The thread watching the file, or null if the file is not watched. */
+    private Thread watcher;
+
+    /** Constructor: a reloader that keeps heap in step with the guideline
+     *  file at filePath. The current contents of heap are taken to be the
+     *  guidelines last loaded from the file. */
+    public GuidelineReloader(Heap<String, String> heap, String filePath) {
+        this.heap = heap;
+        file = Paths.get(filePath);
+        loaded = new HashMap<>();
+        synchronized (heap) {
+            for (int i = 0; i < heap.size(); i++) {
+                loaded.put(heap.c.get(i).value, heap.c.get(i).priority);
+            }
+        }
+    }
+
+    /** Parse the guideline file again and apply the differences to the heap.
+     *  Guidelines that were polled from the heap since the last reload are
+     *  not put back unless they are new to the file. Return the number of
+     *  guidelines that were added, removed or given a new level. If the file
+     *  is empty, as it is while it is being rewritten, nothing is changed
+     *  and 0 is returned.
+     *  @throws FileNotFoundException if the file cannot be opened. */
+    public synchronized int reload() throws FileNotFoundException {
+        String[][] guidelines = AccessibilityLevelHeap.GetAccessibilityGuidelines(file.toString());
+        if (guidelines.length == 0) {
+            return 0;
+        }
+        HashMap<String, String> fresh = new HashMap<>();
+        for (String[] g : guidelines) {
+            String level = AccessibilityLevelHeap.GetAccessibilityLevel(g);
+            if (level != null) {
+                fresh.put(g[0], level);
+            }
+        }
+
+        ArrayList<String> removed = new ArrayList<>();
+        ArrayList<String> added = new ArrayList<>();
+        ArrayList<String> changed = new ArrayList<>();
+        for (String id : loaded.keySet()) {
+            if (!fresh.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+        for (Map.Entry<String, String> e : fresh.entrySet()) {
+            String old = loaded.get(e.getKey());
+            if (old == null) {
+                added.add(e.getKey());
+            } else if (!old.equals(e.getValue())) {
+                changed.add(e.getKey());
+            }
+        }
+
+        synchronized (heap) {
+            for (String id : removed) {
+                if (heap.contains(id)) {
+                    heap.remove(id);
+                }
+            }
+            for (String id : changed) {
+                if (heap.contains(id)) {
+                    heap.changeAccessibilityPriority(id, fresh.get(id));
+                }
+            }
+            for (String id : added) {
+                if (heap.contains(id)) {
+                    heap.changeAccessibilityPriority(id, fresh.get(id));
+                } else {
+                    heap.add(id, fresh.get(id));
+                }
+            }
+        }
+        loaded = fresh;
+        return removed.size() + changed.size() + added.size();
+    }
+
+    /** Start a daemon thread that reloads whenever the guideline file is
+     *  created or modified. Do nothing if the file is already watched.
+     *  @throws IOException if the file's directory cannot be watched. */
+    public synchronized void watch() throws IOException {
+        if (watcher != null) return;
+        Path dir = file.toAbsolutePath().getParent();
+        WatchService ws = FileSystems.getDefault().newWatchService();
+        try {
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            ws.close();
+            throw e;
+        }
+        watcher = new Thread(() -> watchLoop(ws), "guideline-reloader");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /** Stop watching the guideline file. Do nothing if it is not watched. */
+    public synchronized void stop() {
+        if (watcher == null) return;
+        watcher.interrupt();
+        watcher = null;
+    }
+
+    /** Reload after each burst of changes to the guideline file reported by
+     *  ws, once QUIET_MILLIS have passed without another change, until this
+     *  thread is interrupted. */
+    private void watchLoop(WatchService ws) {
+        try (WatchService service = ws) {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean ours = isOurs(service.take());
+                for (WatchKey key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS); key != null;
+                        key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) {
+                    ours = isOurs(key) || ours;
+                }
+                if (ours) {
+                    try {
+                        reload();
+                    } catch (FileNotFoundException | RuntimeException e) {
+                        // The file is missing or only partly written; the
+                        // next change event will try again.
+                    }
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // stop() was called, or the watch service was closed.
+        }
+    }
+
+    /** Take the events of key and reset it. Return true if one of them is
+     *  about the guideline file, or is an OVERFLOW, which means that events
+     *  were lost and the file may have changed. */
+    private boolean isOurs(WatchKey key) {
+        Path name = file.getFileName();
+        boolean ours = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            ours = ours || event.kind() == StandardWatchEventKinds.OVERFLOW
+                        || name.equals(event.context());
+        }
+        key.reset();
+        return ours;
+    }
+}
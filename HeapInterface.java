@@ -37,24 +37,47 @@ public final class HeapInterface<V, P extends Comparable<P>> {
      *        map.size() == c.size()
      *     5. For each value v in the heap, its map entry contains in the
      *        the index of v in c. Thus: map.get(c[i]) = i.
+     *
+     *   If the heap was created with a KeyEncoder:
+     *     6. For each entry e in c, e.key == encoder.encode(e.priority).
      */
     protected AList<Entry> c;
     protected HashTable<V, Integer> map;
+    protected final KeyEncoder<P> encoder;
 
     /** Constructor: an empty heap with capacity 10. */
     public Heap() {
+        this(null);
+    }
+
+    /** Constructor: an empty heap with capacity 10 that compares priorities
+     *  by their keys under encoder instead of with compareTo. If encoder is
+     *  null, compareTo is used. */
+    public Heap(KeyEncoder<P> encoder) {
         c = new AList<Entry>(10);
         map = new HashTable<V, Integer>();
+        this.encoder = encoder;
     }
 
-    /** An Entry contains a value and a priority. */
+    /** An Entry contains a value and a priority, and the priority's key if
+     *  the heap has a KeyEncoder. */
     class Entry {
         public V value;
         public P priority;
+        public long key;
 
         /** An Entry with value v and priority p*/
         Entry(V v, P p) {
             value = v;
+            setPriority(p);
+        }
+
+        /** Change this entry's priority to p, keeping its key up to date.
+         *  If p cannot be encoded, the entry is left unchanged. */
+        void setPriority(P p) {
+            if (encoder != null) {
+                key = encoder.encode(p);
+            }
             priority = p;
         }
 
@@ -67,7 +90,9 @@ public final class HeapInterface<V, P extends Comparable<P>> {
      *  The expected time is logarithmic and the worst-case time is linear
      *  in the size of the heap. Precondition: p is not null.
      *  In Phase 3 only:
-     *  @throws IllegalArgumentException if v is already in the heap.*/
+     *  @throws IllegalArgumentException if v is already in the heap.
+     *  @throws IllegalArgumentException if the heap's KeyEncoder cannot
+     *  encode p; the heap is then unchanged.*/
     public void add(V v, P p) throws IllegalArgumentException {
         // TODO 1.1: Write the whole add method. Note that bubbleUp is not implemented,
         // so calling it will have no effect. The first tests of add, using
@@ -76,6 +101,8 @@ public final class HeapInterface<V, P extends Comparable<P>> {
         // When done, this should pass Phase1Test::test00Add().
         //
         // TODO 3.1: Update this method to maintain class invariants 3-5.
+        // Create the new Entry before changing c or map, so that a priority
+        // the KeyEncoder rejects leaves the heap unchanged.
         // (delete the following line after completing TODO 1.1)
         throw new UnsupportedOperationException(); 
     }
@@ -99,6 +126,18 @@ public final class HeapInterface<V, P extends Comparable<P>> {
         throw new UnsupportedOperationException();
     }
 
+    /** Return a negative number, zero or a positive number as the priority
+     *  of c[h] is smaller than, equal to or larger than the priority of c[k].
+     *  If the heap has a KeyEncoder this compares the cached keys, which
+     *  avoids a call to compareTo on every step of bubbling.
+     *  precondition: h and k are >= 0 and < c.size() */
+    protected int compare(int h, int k) {
+        if (encoder != null) {
+            return Long.compare(c.get(h).key, c.get(k).key);
+        }
+        return c.get(h).priority.compareTo(c.get(k).priority);
+    }
+
     /** Bubble c[k] up in heap to its right place.
      *  Precondition: Priority of every c[i] >= its parent's priority
      *                except perhaps for c[k] */
@@ -106,6 +145,7 @@ public final class HeapInterface<V, P extends Comparable<P>> {
         // TODO 1.3 As you know, this method should be called within add in order
         // to bubble a value up to its proper place, based on its priority.
         // When done, this should pass test115Add_BubbleUp
+        // Use compare to compare the priorities of two entries.
         throw new UnsupportedOperationException();
     }
 
@@ -142,7 +182,8 @@ public final class HeapInterface<V, P extends Comparable<P>> {
     protected void bubbleDown(int k) {
         // TODO 1.6: Do poll (1.5) and bubbleDown together.  We also suggest
         //         implementing and using smallerChild, though you don't
-        //         have to.
+        //         have to. Use compare to compare the priorities of two
+        //         entries.
         throw new UnsupportedOperationException();
     }
 
@@ -156,13 +197,36 @@ public final class HeapInterface<V, P extends Comparable<P>> {
     /** Change the priority of value v to p.
      *  The expected time is logarithmic and the worst-case time is linear
      *  in the size of the heap.
-     *  @throws IllegalArgumentException if v is not in the heap. */
+     *  @throws IllegalArgumentException if v is not in the heap, or if the
+     *  heap's KeyEncoder cannot encode p; the heap is then unchanged. */
     public void changeAccessibilityPriority(V v, P p) throws IllegalArgumentException {
         // TODO 3.2: Implement this method to change the priority of node in
-        // the heap.
+        // the heap. Use Entry.setPriority so the entry's key stays up to date.
         throw new UnsupportedOperationException();
     }
 
+    /** Remove value v from the heap.
+     *  The expected time is logarithmic and the worst-case time is linear
+     *  in the size of the heap.
+     *  @throws IllegalArgumentException if v is not in the heap. */
+    public void remove(V v) throws IllegalArgumentException {
+        Integer k = map.get(v);
+        if (k == null) {
+            throw new IllegalArgumentException("Value " + v + " is not in the heap");
+        }
+        // Move the last entry into v's place, then bubble it whichever way
+        // its priority requires; at most one of the two calls moves it.
+        int last = c.size() - 1;
+        swap(k, last);
+        c.pop();
+        map.remove(v);
+        if (k < last) {
+            V moved = c.get(k).value;
+            bubbleUp(k);
+            bubbleDown(map.get(moved));
+        }
+    }
+
     // Recommended helper method spec:
     /* Return the index of the child of k with smaller priority.
      * if only one child exists, return that child's index
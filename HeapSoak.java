@@ -0,0 +1,191 @@
+package heap;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** A randomized soak harness for Heap. It runs a long, seeded sequence of
+ *  add, poll, changeAccessibilityPriority and contains calls on a Heap and on
+ *  a simple reference model, checks that every call agrees with the model,
+ *  and checks the class invariants of the Heap every so often.
+ *  Usage: HeapSoak [operations] [seed] [values] [priorities] [sample interval] */
+public class HeapSoak {
+
+    /** Throw an AssertionError if mh does not satisfy class invariants 1-6
+     *  of Heap. This takes time linear in the size of mh, so it can be called
+     *  regularly during long runs. */
+    public static <V, P extends Comparable<P>> void verify(Heap<V, P> mh) {
+        int n = mh.c.size();
+        for (int i = 0; i < n; i++) {
+            // Invariant 1
+            Heap<V, P>.Entry e = mh.c.get(i);
+            if (e == null) {
+                throw new AssertionError("Invariant 1: c[" + i + "] is null");
+            }
+            // Invariant 2
+            if (i > 0 && e.priority.compareTo(mh.c.get((i - 1) / 2).priority) < 0) {
+                throw new AssertionError("Invariant 2: c[" + i + "] has a smaller priority than its parent");
+            }
+            // Invariants 3 and 5: map is a function, so if every value maps
+            // back to its own index, no value can appear at two indices.
+            Integer k = mh.map.get(e.value);
+            if (k == null || k != i) {
+                throw new AssertionError("Invariant 3 or 5: map.get(c[" + i + "]) is " + k);
+            }
+            // Invariant 6
+            if (mh.encoder != null && e.key != mh.encoder.encode(e.priority)) {
+                throw new AssertionError("Invariant 6: the key of c[" + i + "] is out of date");
+            }
+        }
+        // Invariant 4
+        if (mh.map.getSize() != n) {
+            throw new AssertionError("Invariant 4: map has " + mh.map.getSize() + " entries but c has " + n);
+        }
+    }
+
+    /** The kinds of operation run by soak. */
+    private static final int ADD = 0;
+    private static final int POLL = 1;
+    private static final int CHANGE = 2;
+    private static final int CONTAINS = 3;
+
+    /** Number of operations generated, timed and then checked together.
+     *  Timing a batch instead of each call keeps the cost of reading the
+     *  clock and of the model out of the measured time. */
+    private static final int BATCH = 4096;
+
+    /** Run ops random operations, chosen using seed, on a Heap whose values
+     *  are in 0..values-1 and whose priorities are in 0..priorities-1.
+     *  The operations are run in batches of BATCH: a batch is generated, run
+     *  on the heap with only the heap calls timed, and its results are then
+     *  checked against a reference model. verify is called at the first
+     *  batch boundary after every sampleEvery operations, and at the end.
+     *  Return the time taken by the heap operations, in nanoseconds.
+     *  @throws AssertionError if the heap and the model disagree. */
+    public static long soak(long seed, long ops, int values, int priorities, long sampleEvery) {
+        Random rand = new Random(seed);
+        Heap<Integer, Integer> mh = new Heap<>();
+        // The model: the priority of each value, and how many values have
+        // each priority, so the smallest priority can be found quickly.
+        HashMap<Integer, Integer> model = new HashMap<>();
+        TreeMap<Integer, Integer> counts = new TreeMap<>();
+        int[] kind = new int[BATCH];
+        Integer[] value = new Integer[BATCH];
+        Integer[] priority = new Integer[BATCH];
+        // result[i] is the value polled by operation i, or -1 if poll threw;
+        // for the other operations it is 1 if add or change threw or if
+        // contains was true, and 0 otherwise.
+        int[] result = new int[BATCH];
+        long time = 0;
+        long nextVerify = sampleEvery;
+
+        for (long done = 0; done < ops; ) {
+            int n = (int) Math.min(BATCH, ops - done);
+            for (int i = 0; i < n; i++) {
+                int r = rand.nextInt(20);
+                kind[i] = r < 7 ? ADD : r < 12 ? POLL : r < 16 ? CHANGE : CONTAINS;
+                value[i] = rand.nextInt(values);
+                priority[i] = rand.nextInt(priorities);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                result[i] = run(mh, kind[i], value[i], priority[i]);
+            }
+            time += System.nanoTime() - start;
+
+            for (int i = 0; i < n; i++) {
+                check(done + i + 1, kind[i], value[i], priority[i], result[i], model, counts);
+            }
+            done += n;
+            if (mh.size() != model.size()) {
+                throw new AssertionError("op " + done + ": size() is " + mh.size() + " but should be " + model.size());
+            }
+            if (done >= nextVerify) {
+                verify(mh);
+                nextVerify += sampleEvery;
+            }
+        }
+        verify(mh);
+        return time;
+    }
+
+    /** Run one operation of the given kind on mh with value v and priority
+     *  p, and return its result as described in soak. */
+    private static int run(Heap<Integer, Integer> mh, int kind, Integer v, Integer p) {
+        try {
+            switch (kind) {
+                case ADD:
+                    mh.add(v, p);
+                    return 0;
+                case POLL:
+                    return mh.poll();
+                case CHANGE:
+                    mh.changeAccessibilityPriority(v, p);
+                    return 0;
+                default:
+                    return mh.contains(v) ? 1 : 0;
+            }
+        } catch (IllegalArgumentException e) {
+            return 1;
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
+    /** Check result, the result of operation op (of the given kind, with
+     *  value v and priority p), against the model, and apply the operation
+     *  to the model.
+     *  @throws AssertionError if the result is wrong. */
+    private static void check(long op, int kind, Integer v, Integer p, int result,
+                              HashMap<Integer, Integer> model, TreeMap<Integer, Integer> counts) {
+        if (kind == ADD) {
+            agree(op, "add(" + v + ")", model.containsKey(v), result == 1);
+            if (result == 0) {
+                model.put(v, p);
+                counts.merge(p, 1, Integer::sum);
+            }
+        } else if (kind == POLL) {
+            agree(op, "poll() on an empty heap", model.isEmpty(), result == -1);
+            if (result != -1) {
+                Integer q = model.remove(result);
+                if (q == null || !q.equals(counts.firstKey())) {
+                    throw new AssertionError("op " + op + ": poll() returned " + result
+                        + " with priority " + q + " but the smallest is " + counts.firstKey());
+                }
+                counts.merge(q, -1, Integer::sum);
+                counts.remove(q, 0);
+            }
+        } else if (kind == CHANGE) {
+            agree(op, "changeAccessibilityPriority(" + v + ")", !model.containsKey(v), result == 1);
+            if (result == 0) {
+                Integer q = model.put(v, p);
+                counts.merge(q, -1, Integer::sum);
+                counts.remove(q, 0);
+                counts.merge(p, 1, Integer::sum);
+            }
+        } else {
+            agree(op, "contains(" + v + ")", model.containsKey(v), result == 1);
+        }
+    }
+
+    /** Throw an AssertionError naming operation op if expected != actual. */
+    private static void agree(long op, String call, boolean expected, boolean actual) {
+        if (expected != actual) {
+            throw new AssertionError("op " + op + ": " + call + " disagrees with the reference model");
+        }
+    }
+
+    public static void main(String[] args) {
+        long ops = args.length > 0 ? Long.parseLong(args[0]) : 5_000_000L;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 2110L;
+        int values = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        int priorities = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        long sampleEvery = args.length > 4 ? Long.parseLong(args[4]) : 250_000L;
+
+        long time = soak(seed, ops, values, priorities, sampleEvery);
+        System.out.printf("%d operations (seed %d, %d values, %d priorities) passed%n",
+                          ops, seed, values, priorities);
+        System.out.printf("heap time %.1f ms, %.0f ops/s%n", time / 1e6, ops / (time / 1e9));
+    }
+}
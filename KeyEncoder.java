@@ -0,0 +1,17 @@
+package heap;
+
+/** A KeyEncoder maps each priority of type P to a long key that orders
+ *  priorities the same way compareTo does: for all priorities p and q,
+ *  encode(p) < encode(q) exactly when p.compareTo(q) < 0, and
+ *  encode(p) == encode(q) exactly when p.compareTo(q) == 0.
+ *
+ *  A Heap created with a KeyEncoder encodes a priority once, when it is
+ *  added or changed, and compares the keys when bubbling. This is worthwhile
+ *  when compareTo is expensive or when the heap holds several types of
+ *  priority, so that the JIT cannot inline the calls to compareTo. */
+public interface KeyEncoder<P> {
+
+    /** Return the key of priority p. Precondition: p is not null.
+     *  @throws IllegalArgumentException if p has no key that keeps the order. */
+    long encode(P p);
+}
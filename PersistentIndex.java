@@ -0,0 +1,223 @@
+package heap;
+
+/** A persistent hash map from keys to int positions, stored as a hash array
+ *  mapped trie. A map is represented by its root Node; the empty map is null.
+ *
+ *  Every node records the edit token of the writer that created it. put and
+ *  remove, given an edit token, change nodes that carry that token in place
+ *  and copy the other nodes on the path from the root to the key. So once a
+ *  writer switches to a new edit token, every map reachable from an older
+ *  root stays exactly as it was, while later changes cost only the nodes
+ *  they touch. SnapshotHeap uses this for its position map. */
+final class PersistentIndex {
+
+    /** Number of hash bits used at each level of the trie. */
+    private static final int BITS = 5;
+    /** Largest shift at which hash bits are still left. */
+    private static final int MAX_SHIFT = 30;
+
+    private PersistentIndex() {
+    }
+
+    /** A Node of the trie. If collision is false, array holds one pair of
+     *  slots for each bit set in bitmap, in order: array[2i] is a key and
+     *  array[2i+1] its Integer position, or array[2i] is null and
+     *  array[2i+1] is the child Node holding the keys below that bit.
+     *  If collision is true, all keys in array have the same hash, and
+     *  array holds (key, position) pairs with no children. */
+    static final class Node {
+        final Object edit;
+        final boolean collision;
+        int bitmap;
+        Object[] array;
+
+        /** A node created under edit token edit. */
+        Node(Object edit, boolean collision, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.collision = collision;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+    }
+
+    /** Return the position of key in the map with root root, or null if
+     *  key is not in it. */
+    static Integer get(Node root, Object key) {
+        int hash = hash(key);
+        Node n = root;
+        for (int shift = 0; n != null; shift += BITS) {
+            if (n.collision) {
+                for (int i = 0; i < n.array.length; i += 2) {
+                    if (key.equals(n.array[i])) return (Integer) n.array[i + 1];
+                }
+                return null;
+            }
+            int bit = bit(hash, shift);
+            if ((n.bitmap & bit) == 0) return null;
+            int i = 2 * index(n.bitmap, bit);
+            if (n.array[i] == null) {
+                n = (Node) n.array[i + 1];
+            } else {
+                return key.equals(n.array[i]) ? (Integer) n.array[i + 1] : null;
+            }
+        }
+        return null;
+    }
+
+    /** Return the root of the map with root root in which key has position
+     *  pos, changing only nodes created under edit. */
+    static Node put(Node root, Object edit, Object key, int pos) {
+        return put(root, 0, edit, hash(key), key, pos);
+    }
+
+    /** Return the root of the map with root root without key, changing only
+     *  nodes created under edit. The result is null if the map is empty. */
+    static Node remove(Node root, Object edit, Object key) {
+        return root == null ? null : remove(root, 0, edit, hash(key), key);
+    }
+
+    /** Return the subtrie n, at depth shift, with key (whose hash is hash)
+     *  at position pos. */
+    private static Node put(Node n, int shift, Object edit, int hash, Object key, int pos) {
+        if (n == null) {
+            return new Node(edit, false, bit(hash, shift), new Object[] {key, pos});
+        }
+        if (n.collision) {
+            for (int i = 0; i < n.array.length; i += 2) {
+                if (key.equals(n.array[i])) {
+                    Node e = editable(n, edit);
+                    e.array[i + 1] = pos;
+                    return e;
+                }
+            }
+            Node e = editable(n, edit);
+            e.array = insertPair(n.array, n.array.length, key, pos);
+            return e;
+        }
+
+        int bit = bit(hash, shift);
+        int i = 2 * index(n.bitmap, bit);
+        if ((n.bitmap & bit) == 0) {
+            Node e = editable(n, edit);
+            e.array = insertPair(n.array, i, key, pos);
+            e.bitmap |= bit;
+            return e;
+        }
+        Object k = n.array[i];
+        Object v = n.array[i + 1];
+        if (k == null) {
+            Node child = put((Node) v, shift + BITS, edit, hash, key, pos);
+            if (child == v) return n;
+            Node e = editable(n, edit);
+            e.array[i + 1] = child;
+            return e;
+        }
+        if (key.equals(k)) {
+            if (((Integer) v) == pos) return n;
+            Node e = editable(n, edit);
+            e.array[i + 1] = pos;
+            return e;
+        }
+        Node e = editable(n, edit);
+        e.array[i] = null;
+        e.array[i + 1] = pair(shift + BITS, edit, hash(k), k, (Integer) v, hash, key, pos);
+        return e;
+    }
+
+    /** Return the subtrie n, at depth shift, without key (whose hash is
+     *  hash), or null if that subtrie is empty. */
+    private static Node remove(Node n, int shift, Object edit, int hash, Object key) {
+        if (n.collision) {
+            for (int i = 0; i < n.array.length; i += 2) {
+                if (key.equals(n.array[i])) {
+                    if (n.array.length == 2) return null;
+                    Node e = editable(n, edit);
+                    e.array = removePair(n.array, i);
+                    return e;
+                }
+            }
+            return n;
+        }
+
+        int bit = bit(hash, shift);
+        if ((n.bitmap & bit) == 0) return n;
+        int i = 2 * index(n.bitmap, bit);
+        Object k = n.array[i];
+        if (k == null) {
+            Node child = (Node) n.array[i + 1];
+            Node rest = remove(child, shift + BITS, edit, hash, key);
+            if (rest == child) return n;
+            if (rest != null) {
+                Node e = editable(n, edit);
+                e.array[i + 1] = rest;
+                return e;
+            }
+        } else if (!key.equals(k)) {
+            return n;
+        }
+        if (n.bitmap == bit) return null;
+        Node e = editable(n, edit);
+        e.array = removePair(n.array, i);
+        e.bitmap &= ~bit;
+        return e;
+    }
+
+    /** Return a subtrie at depth shift holding keys k1 and k2, which differ,
+     *  with hashes h1 and h2 and positions p1 and p2. */
+    private static Node pair(int shift, Object edit, int h1, Object k1, int p1,
+                             int h2, Object k2, int p2) {
+        if (shift > MAX_SHIFT) {
+            return new Node(edit, true, 0, new Object[] {k1, p1, k2, p2});
+        }
+        int b1 = bit(h1, shift);
+        int b2 = bit(h2, shift);
+        if (b1 == b2) {
+            return new Node(edit, false, b1,
+                            new Object[] {null, pair(shift + BITS, edit, h1, k1, p1, h2, k2, p2)});
+        }
+        Object[] array = Integer.compareUnsigned(b1, b2) < 0
+            ? new Object[] {k1, p1, k2, p2}
+            : new Object[] {k2, p2, k1, p1};
+        return new Node(edit, false, b1 | b2, array);
+    }
+
+    /** Return n if it was created under edit, or else a copy of n created under edit. */
+    private static Node editable(Node n, Object edit) {
+        if (n.edit == edit) return n;
+        return new Node(edit, n.collision, n.bitmap, n.array.clone());
+    }
+
+    /** Return a copy of array with the pair (key, pos) inserted at index i. */
+    private static Object[] insertPair(Object[] array, int i, Object key, int pos) {
+        Object[] a = new Object[array.length + 2];
+        System.arraycopy(array, 0, a, 0, i);
+        a[i] = key;
+        a[i + 1] = pos;
+        System.arraycopy(array, i, a, i + 2, array.length - i);
+        return a;
+    }
+
+    /** Return a copy of array without the pair at index i. */
+    private static Object[] removePair(Object[] array, int i) {
+        Object[] a = new Object[array.length - 2];
+        System.arraycopy(array, 0, a, 0, i);
+        System.arraycopy(array, i + 2, a, i, array.length - i - 2);
+        return a;
+    }
+
+    /** Return the hash of key, with its high bits mixed into its low bits. */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** Return the bitmap bit for hash at depth shift. */
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    /** Return the number of bits of bitmap below bit. */
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+}
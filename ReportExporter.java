@@ -0,0 +1,287 @@
+package heap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** An instance writes the contents of a Heap, or of a snapshot of a
+ *  SnapshotHeap, in priority order, as CSV or JSON to a WritableByteChannel.
+ *  The heap or snapshot is not changed. Records are written through an
+ *  output buffer of fixed size.
+ *
+ *  A Heap keeps its entries in an AList that it changes in place, so there
+ *  is nothing to share with the export: the export holds the heap's lock
+ *  only while it copies the values and priorities of c into two arrays (a
+ *  copy of O(n) references), so code that changes the heap while holding
+ *  its lock, as GuidelineReloader does, waits no longer than that. Records
+ *  are then taken from the copy in order by polling it in place, the way
+ *  Heap polls.
+ *
+ *  A SnapshotHeap.Snapshot is already immutable, so it is exported without
+ *  copying its entries and without a lock, through its ordered iterator.
+ *  That iterator is not free either: it keeps a queue of candidate
+ *  positions that grows to about n/2 boxed Integers over an export of n
+ *  values. So both paths use memory linear in the size of the heap; the
+ *  snapshot path's advantage is that the heap is never locked and can keep
+ *  changing during the export. */
+public class ReportExporter {
+
+    /** The default size of the output buffer, in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** The size of the output buffer, in bytes. */
+    private final int bufferSize;
+
+    /** Constructor: an exporter with an output buffer of DEFAULT_BUFFER_SIZE bytes. */
+    public ReportExporter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /** Constructor: an exporter with an output buffer of bufferSize bytes.
+     *  @throws IllegalArgumentException if bufferSize < 16. */
+    public ReportExporter(int bufferSize) throws IllegalArgumentException {
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("The output buffer must hold at least 16 bytes");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /** Write the values and priorities of heap to out as CSV, one record per
+     *  line after a header line, in the order poll would return them. */
+    public <V, P extends Comparable<P>> void exportCsv(Heap<V, P> heap, WritableByteChannel out)
+            throws IOException {
+        writeCsv(new Snapshot<>(heap), out);
+    }
+
+    /** Write the values and priorities of snapshot to out as CSV, one record
+     *  per line after a header line, in order of priority; values with equal
+     *  priorities come in no particular order. */
+    public <V, P extends Comparable<P>> void exportCsv(SnapshotHeap.Snapshot<V, P> snapshot,
+            WritableByteChannel out) throws IOException {
+        writeCsv(records(snapshot), out);
+    }
+
+    /** Write the values and priorities of heap to out as a JSON array of
+     *  objects with string fields "value" and "priority", in the order poll
+     *  would return them. */
+    public <V, P extends Comparable<P>> void exportJson(Heap<V, P> heap, WritableByteChannel out)
+            throws IOException {
+        writeJson(new Snapshot<>(heap), out);
+    }
+
+    /** Write the values and priorities of snapshot to out as a JSON array of
+     *  objects with string fields "value" and "priority", in order of
+     *  priority; values with equal priorities come in no particular order. */
+    public <V, P extends Comparable<P>> void exportJson(SnapshotHeap.Snapshot<V, P> snapshot,
+            WritableByteChannel out) throws IOException {
+        writeJson(records(snapshot), out);
+    }
+
+    /** Return the records of snapshot, in the order of its iterator. */
+    private static <V, P extends Comparable<P>> Iterator<Record> records(
+            SnapshotHeap.Snapshot<V, P> snapshot) {
+        Iterator<V> values = snapshot.iterator();
+        return new Iterator<Record>() {
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            public Record next() {
+                V v = values.next();
+                return new Record(v, snapshot.priority(v));
+            }
+        };
+    }
+
+    /** Write records to out as CSV. */
+    private void writeCsv(Iterator<Record> records, WritableByteChannel out) throws IOException {
+        ChannelWriter w = new ChannelWriter(out, bufferSize);
+        w.write("value,priority\n");
+        while (records.hasNext()) {
+            Record e = records.next();
+            w.write(csvField(e.value) + "," + csvField(e.priority) + "\n");
+        }
+        w.close();
+    }
+
+    /** Write records to out as JSON. */
+    private void writeJson(Iterator<Record> records, WritableByteChannel out) throws IOException {
+        ChannelWriter w = new ChannelWriter(out, bufferSize);
+        w.write("[");
+        for (boolean first = true; records.hasNext(); first = false) {
+            Record e = records.next();
+            w.write((first ? "\n" : ",\n") + "  {\"value\": " + jsonString(e.value)
+                    + ", \"priority\": " + jsonString(e.priority) + "}");
+        }
+        w.write("\n]\n");
+        w.close();
+    }
+
+    /** Return o as a CSV field, quoted if it contains a comma, quote or line break. */
+    private static String csvField(Object o) {
+        String s = o.toString();
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    /** Return o as a JSON string literal. */
+    private static String jsonString(Object o) {
+        String s = o.toString();
+        StringBuilder b = new StringBuilder(s.length() + 2);
+        b.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                b.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                b.append(String.format("\\u%04x", (int) ch));
+            } else {
+                b.append(ch);
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    /** A Record is one value and its priority, as written to the output. */
+    private static class Record {
+        final Object value;
+        final Object priority;
+
+        /** A record of value v with priority p */
+        Record(Object v, Object p) {
+            value = v;
+            priority = p;
+        }
+    }
+
+    /** A Snapshot is a copy of the entries of a Heap that can be polled in
+     *  place without changing the heap. value[0..size-1] and
+     *  priority[0..size-1] satisfy the heap property of Heap. Iterating
+     *  polls it, giving its entries in the order Heap.poll would. */
+    private static class Snapshot<P extends Comparable<P>> implements Iterator<Record> {
+        final Object[] value;
+        final P[] priority;
+        int size;
+
+        /** A snapshot of heap, taken while holding heap's lock. */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        <V> Snapshot(Heap<V, P> heap) {
+            synchronized (heap) {
+                size = heap.size();
+                value = new Object[size];
+                priority = (P[]) new Comparable[size];
+                for (int i = 0; i < size; i++) {
+                    value[i] = heap.c.get(i).value;
+                    priority[i] = heap.c.get(i).priority;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return size > 0;
+        }
+
+        /** Poll the entry with lowest priority.
+         *  @throws NoSuchElementException if the copy is empty. */
+        public Record next() throws NoSuchElementException {
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            P p = priority[0];
+            return new Record(poll(), p);
+        }
+
+        /** Remove and return the value with lowest priority, as Heap.poll does.
+         *  Precondition: size > 0. */
+        Object poll() {
+            Object v = value[0];
+            size--;
+            value[0] = value[size];
+            priority[0] = priority[size];
+            value[size] = null;
+            priority[size] = null;
+
+            // Bubble down; on equal children choose the right one, and stop
+            // at a child with an equal priority, as Heap.bubbleDown does.
+            int k = 0;
+            while (2 * k + 1 < size) {
+                int child = 2 * k + 1;
+                if (child + 1 < size && priority[child + 1].compareTo(priority[child]) <= 0) {
+                    child++;
+                }
+                if (priority[k].compareTo(priority[child]) <= 0) break;
+                swap(k, child);
+                k = child;
+            }
+            return v;
+        }
+
+        /** Swap entries h and k. */
+        private void swap(int h, int k) {
+            Object v = value[h];
+            value[h] = value[k];
+            value[k] = v;
+            P p = priority[h];
+            priority[h] = priority[k];
+            priority[k] = p;
+        }
+    }
+
+    /** A ChannelWriter encodes text as UTF-8 into a buffer of fixed size and
+     *  writes the buffer to a channel whenever it fills up. */
+    private static class ChannelWriter {
+        private final WritableByteChannel out;
+        private final ByteBuffer buffer;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        /** A writer to out with a buffer of size bytes. */
+        ChannelWriter(WritableByteChannel out, int size) {
+            this.out = out;
+            buffer = ByteBuffer.allocate(size);
+        }
+
+        /** Write s. */
+        void write(String s) throws IOException {
+            encode(CharBuffer.wrap(s), false);
+        }
+
+        /** Write out everything still buffered. The channel is left open. */
+        void close() throws IOException {
+            encode(CharBuffer.allocate(0), true);
+            while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            drain();
+        }
+
+        /** Encode chars into the buffer, draining it to the channel as it fills. */
+        private void encode(CharBuffer chars, boolean last) throws IOException {
+            while (true) {
+                CoderResult r = encoder.encode(chars, buffer, last);
+                if (r.isOverflow()) {
+                    drain();
+                } else if (r.isUnderflow()) {
+                    return;
+                } else {
+                    r.throwException();
+                }
+            }
+        }
+
+        /** Write the contents of the buffer to the channel and empty it. */
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
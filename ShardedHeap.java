@@ -0,0 +1,238 @@
+package heap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** An instance is a relaxed min-heap of distinct values of type V with
+ *  priorities of type P that many threads can use at once. It is made of
+ *  several independent Heaps, called shards, each behind its own lock.
+ *  add puts a value in a random shard (or a shard chosen by the caller), and
+ *  poll looks at the smallest priorities of two random shards and removes
+ *  the smaller (the MultiQueue scheme). So poll does not always return the
+ *  value with the smallest priority, but threads rarely wait for each other.
+ *
+ *  Rank error: the rank of a polled value is the number of values in the
+ *  heap with smaller priorities. If values are added to random shards, the
+ *  expected rank of a polled value is O(s) and its rank is O(s log s) with
+ *  high probability, where s is the number of shards (Alistarh et al., "The
+ *  Power of Choice in Priority Scheduling", PODC 2017). Values added to a
+ *  chosen shard fall outside this bound. With one shard the heap is exact.
+ *
+ *  contains and changeAccessibilityPriority use an index from each value to
+ *  its shard, so they lock only that shard. size and contains are exact when
+ *  no other thread is changing the heap. */
+public class ShardedHeap<V, P extends Comparable<P>> {
+
+    /**
+     * Class Invariants:
+     *   1. Each value in the heap is in exactly one shard.
+     *   2. index contains one entry for each value in the heap, and
+     *      index.get(v) is the slot of v: its shard and its priority.
+     *   3. A value is added to or removed from shards[i], and its entry in
+     *      index is added or removed, only while holding locks[i].
+     */
+    private final Heap<V, P>[] shards;
+    private final ReentrantLock[] locks;
+    private final ConcurrentHashMap<V, Slot<P>> index;
+
+    /** A Slot records the shard holding a value and the value's priority.
+     *  priority is changed only while holding the shard's lock. */
+    private static class Slot<P> {
+        final int shard;
+        P priority;
+
+        /** A Slot for a value with priority p in shard s */
+        Slot(int s, P p) {
+            shard = s;
+            priority = p;
+        }
+    }
+
+    /** Constructor: an empty heap with n shards.
+     *  @throws IllegalArgumentException if n < 1. */
+    public ShardedHeap(int n) throws IllegalArgumentException {
+        this(n, null);
+    }
+
+    /** Constructor: an empty heap with n shards, each comparing priorities
+     *  by their keys under encoder (see Heap(KeyEncoder)).
+     *  @throws IllegalArgumentException if n < 1. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ShardedHeap(int n, KeyEncoder<P> encoder) throws IllegalArgumentException {
+        if (n < 1) {
+            throw new IllegalArgumentException("A ShardedHeap needs at least one shard");
+        }
+        shards = (Heap<V, P>[]) new Heap[n];
+        locks = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Heap<V, P>(encoder);
+            locks[i] = new ReentrantLock();
+        }
+        index = new ConcurrentHashMap<>();
+    }
+
+    /** Return the number of shards. */
+    public int shards() {
+        return shards.length;
+    }
+
+    /** Add v with priority p to a random shard. Shards that another thread
+     *  is using are skipped when possible.
+     *  @throws IllegalArgumentException if v is already in the heap or p
+     *  cannot be encoded. */
+    public void add(V v, P p) throws IllegalArgumentException {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int s = rand.nextInt(shards.length);
+        for (int tries = 1; !locks[s].tryLock(); tries++) {
+            if (tries == shards.length) {
+                locks[s].lock();
+                break;
+            }
+            s = rand.nextInt(shards.length);
+        }
+        try {
+            addLocked(v, p, s);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /** Add v with priority p to shard s.
+     *  @throws IllegalArgumentException if v is already in the heap, p
+     *  cannot be encoded, or s is not in 0..shards()-1. */
+    public void add(V v, P p, int s) throws IllegalArgumentException {
+        if (s < 0 || s >= shards.length) {
+            throw new IllegalArgumentException("There is no shard " + s);
+        }
+        locks[s].lock();
+        try {
+            addLocked(v, p, s);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    /** Return the number of values in this heap. */
+    public int size() {
+        return index.size();
+    }
+
+    /** Remove and return a value with a small priority: the one with the
+     *  smaller priority of the values at the roots of two random shards. If
+     *  both shards are empty, all shards are locked and the smallest root of
+     *  all of them is taken.
+     *  @throws NoSuchElementException if every shard is empty. */
+    public V poll() throws NoSuchElementException {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int i = rand.nextInt(shards.length);
+        int j = shards.length == 1 ? i : (i + 1 + rand.nextInt(shards.length - 1)) % shards.length;
+        // Lock in order of index so that two polls cannot deadlock.
+        int first = Math.min(i, j);
+        int second = Math.max(i, j);
+        locks[first].lock();
+        if (second != first) locks[second].lock();
+        try {
+            int best = smallerRoot(first, second);
+            if (best >= 0) {
+                return pollLocked(best);
+            }
+        } finally {
+            if (second != first) locks[second].unlock();
+            locks[first].unlock();
+        }
+
+        // Both shards were empty. Lock every shard, in order of index, so
+        // that no value can be added to a shard already looked at; if all
+        // shards are then empty, the heap really is empty.
+        int locked = 0;
+        try {
+            for (; locked < shards.length; locked++) {
+                locks[locked].lock();
+            }
+            int best = -1;
+            for (int k = 0; k < shards.length; k++) {
+                if (shards[k].size() > 0) {
+                    best = best < 0 ? k : smallerRoot(best, k);
+                }
+            }
+            if (best < 0) {
+                throw new NoSuchElementException("The heap is empty");
+            }
+            return pollLocked(best);
+        } finally {
+            for (int k = locked - 1; k >= 0; k--) {
+                locks[k].unlock();
+            }
+        }
+    }
+
+    /** Return true if the value v is in the heap, false otherwise.
+     *  The average case runtime is O(1).  */
+    public boolean contains(V v) {
+        return index.containsKey(v);
+    }
+
+    /** Change the priority of value v to p. Only v's shard is locked.
+     *  @throws IllegalArgumentException if v is not in the heap, or if p
+     *  cannot be encoded; the heap is then unchanged. */
+    public void changeAccessibilityPriority(V v, P p) throws IllegalArgumentException {
+        while (true) {
+            Slot<P> slot = index.get(v);
+            if (slot == null) {
+                throw new IllegalArgumentException("Value " + v + " is not in the heap");
+            }
+            locks[slot.shard].lock();
+            try {
+                // v may have been polled, and perhaps added again elsewhere,
+                // before the lock was acquired; if so, look it up again.
+                if (index.get(v) == slot) {
+                    shards[slot.shard].changeAccessibilityPriority(v, p);
+                    slot.priority = p;
+                    return;
+                }
+            } finally {
+                locks[slot.shard].unlock();
+            }
+        }
+    }
+
+    /** Add v with priority p to shard s.
+     *  Precondition: the current thread holds locks[s].
+     *  @throws IllegalArgumentException if v is already in the heap, or if
+     *  the shard's KeyEncoder cannot encode p; the heap is then unchanged. */
+    private void addLocked(V v, P p, int s) throws IllegalArgumentException {
+        if (index.putIfAbsent(v, new Slot<P>(s, p)) != null) {
+            throw new IllegalArgumentException("Value " + v + " is already in the heap");
+        }
+        try {
+            shards[s].add(v, p);
+        } catch (RuntimeException e) {
+            index.remove(v);
+            throw e;
+        }
+    }
+
+    /** Remove and return the root of shard s.
+     *  Precondition: the current thread holds locks[s] and shard s is not empty. */
+    private V pollLocked(int s) {
+        V v = shards[s].poll();
+        index.remove(v);
+        return v;
+    }
+
+    /** Return whichever of shards h and k has the root with the smaller
+     *  priority, ignoring empty shards, or -1 if both are empty.
+     *  Precondition: the current thread holds locks[h] and locks[k]. */
+    private int smallerRoot(int h, int k) {
+        if (shards[h].size() == 0) {
+            return shards[k].size() == 0 ? -1 : k;
+        }
+        if (shards[k].size() == 0) {
+            return h;
+        }
+        P ph = index.get(shards[h].peek()).priority;
+        P pk = index.get(shards[k].peek()).priority;
+        return pk.compareTo(ph) < 0 ? k : h;
+    }
+}
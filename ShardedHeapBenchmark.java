@@ -0,0 +1,125 @@
+package heap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Throughput and rank-error runs for ShardedHeap.
+ *  Usage: ShardedHeapBenchmark [operations per thread] [max threads]
+ *  For 1, 2, 4, ... threads up to the maximum, each thread adds and polls
+ *  in turn on a heap that starts with PREFILL values. Each thread count is
+ *  run with one shard (a single heap behind one lock) and with two shards
+ *  per thread. The rank error of poll is then measured on one thread. */
+public class ShardedHeapBenchmark {
+
+    /** Number of values in the heap before the timed operations start. */
+    private static final int PREFILL = 100_000;
+    /** Priorities are in 0..PRIORITIES-1. */
+    private static final int PRIORITIES = 1 << 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+
+        throughput(1, 1, ops);   // warm up the JIT
+        System.out.println("threads  shards   Mops/s");
+        for (int t = 1; t <= maxThreads; t *= 2) {
+            for (int s : new int[] {1, 2 * t}) {
+                double rate = throughput(t, s, ops);
+                System.out.printf("%7d %7d %8.2f%n", t, s, rate / 1e6);
+            }
+        }
+
+        System.out.println();
+        System.out.println(" shards  mean rank  max rank");
+        for (int s = 1; s <= 2 * maxThreads; s *= 2) {
+            rankError(s, ops);
+        }
+    }
+
+    /** Return the number of operations per second when threads threads each
+     *  do ops operations, alternating add and poll, on a heap with shards shards. */
+    private static double throughput(int threads, int shards, int ops) throws InterruptedException {
+        ShardedHeap<Integer, Integer> h = new ShardedHeap<>(shards);
+        Random rand = new Random(31);
+        for (int v = 0; v < PREFILL; v++) {
+            h.add(v, rand.nextInt(PRIORITIES));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            // Thread t adds the values PREFILL + t*ops .. PREFILL + (t+1)*ops - 1.
+            int base = PREFILL + t * ops;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < ops; i += 2) {
+                    h.add(base + i, r.nextInt(PRIORITIES));
+                    h.poll();
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        long time = System.nanoTime() - begin;
+        return (double) threads * ops / (time / 1e9);
+    }
+
+    /** Print the mean and maximum rank error of ops polls, alternating with
+     *  adds, on one thread using a heap with shards shards. The rank of a
+     *  polled value is the number of values with smaller priorities; counts
+     *  holds a Fenwick tree of the number of values with each priority. */
+    private static void rankError(int shards, int ops) {
+        ShardedHeap<Integer, Integer> h = new ShardedHeap<>(shards);
+        int[] priority = new int[PREFILL + ops];
+        long[] counts = new long[PRIORITIES + 1];
+        Random rand = new Random(31);
+        int next = 0;
+        for (; next < PREFILL; next++) {
+            priority[next] = rand.nextInt(PRIORITIES);
+            h.add(next, priority[next]);
+            fenwickAdd(counts, priority[next], 1);
+        }
+
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < ops; i++) {
+            priority[next] = rand.nextInt(PRIORITIES);
+            h.add(next, priority[next]);
+            fenwickAdd(counts, priority[next], 1);
+            next++;
+
+            int v = h.poll();
+            long rank = fenwickSum(counts, priority[v]);
+            fenwickAdd(counts, priority[v], -1);
+            total += rank;
+            max = Math.max(max, rank);
+        }
+        System.out.printf("%7d %10.2f %9d%n", shards, (double) total / ops, max);
+    }
+
+    /** Add delta to the count of priority p in Fenwick tree f. */
+    private static void fenwickAdd(long[] f, int p, long delta) {
+        for (int i = p + 1; i < f.length; i += i & -i) {
+            f[i] += delta;
+        }
+    }
+
+    /** Return the number of values with priority less than p in Fenwick tree f. */
+    private static long fenwickSum(long[] f, int p) {
+        long sum = 0;
+        for (int i = p; i > 0; i -= i & -i) {
+            sum += f[i];
+        }
+        return sum;
+    }
+}
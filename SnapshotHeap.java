@@ -0,0 +1,396 @@
+package heap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/** An instance is a min-heap of distinct values of type V with priorities
+ *  of type P, like Heap, that can also hand out snapshots of itself in
+ *  constant time. A snapshot is an immutable view of the heap as it was when
+ *  the snapshot was taken; it supports peek, contains, size and iteration in
+ *  priority order, and it can be read by other threads while this heap keeps
+ *  changing.
+ *
+ *  The backing array is split into chunks of CHUNK entries, reached through
+ *  a directory that is a trie with CHUNK children per node, and the position
+ *  map is a PersistentIndex. Every chunk, directory node and index node
+ *  records the edit token of the writer that created it. Taking a snapshot
+ *  just starts a new edit token, so all the existing structure becomes
+ *  shared with the snapshot; after that a change copies only the chunks and
+ *  index nodes it writes to and the directory nodes on the paths to those
+ *  chunks, O(log n) nodes of constant size per write, and works in place on
+ *  its own copies.
+ *
+ *  A SnapshotHeap is not safe for several threads to change at once;
+ *  writers should share a lock, and snapshot should be called while holding
+ *  it. Snapshots need no lock. */
+public final class SnapshotHeap<V, P extends Comparable<P>> {
+
+    /** Number of entries in each chunk of the backing array. */
+    public static final int CHUNK = 32;
+    private static final int CHUNK_BITS = 5;
+
+    /**
+     * Writing c[i] for entry i of the backing array: c[i] is
+     * entries[i % CHUNK] of chunk i / CHUNK, which is found by starting at
+     * dir and, at each node, following the child given by the next digit of
+     * i / CHUNK in base CHUNK, most significant first. dir has depth
+     * shift / CHUNK_BITS + 1, so it reaches chunks 0..CHUNK^(depth)-1.
+     *
+     * Class Invariants:
+     *   1. c[0..size-1] are non-null.
+     *   2. If c[i] has a parent, then c[i]'s parent's priority is <= c[i]'s
+     *      priority.
+     *   3. The heap cannot contain duplicate values.
+     *   4. index maps each value in the heap, and nothing else, to its
+     *      position: PersistentIndex.get(index, c[i].value) == i.
+     *   5. The directory nodes, chunks and index nodes that were reachable
+     *      when a snapshot was taken are never changed afterwards; only
+     *      structure whose edit token is edit is changed in place.
+     */
+    private Dir dir;
+    private int shift;
+    private PersistentIndex.Node index;
+    private int size;
+    private Object edit;
+    /** Number of chunks copied because they were shared with a snapshot. */
+    long chunkCopies;
+    /** Number of directory nodes copied because they were shared with a snapshot. */
+    long dirCopies;
+
+    /** Constructor: an empty heap. */
+    public SnapshotHeap() {
+        edit = new Object();
+        dir = new Dir(edit, new Object[CHUNK]);
+    }
+
+    /** An Entry is a value and its priority. Entries never change, so they
+     *  can be shared between the heap and its snapshots. */
+    static final class Entry<V, P> {
+        final V value;
+        final P priority;
+
+        /** An Entry with value v and priority p */
+        Entry(V v, P p) {
+            value = v;
+            priority = p;
+        }
+
+        public String toString() {
+            return value.toString();
+        }
+    }
+
+    /** A Chunk holds CHUNK consecutive entries of the backing array. */
+    static final class Chunk {
+        final Object edit;
+        final Entry<?, ?>[] entries;
+
+        /** A chunk created under edit token edit, holding entries. */
+        Chunk(Object edit, Entry<?, ?>[] entries) {
+            this.edit = edit;
+            this.entries = entries;
+        }
+    }
+
+    /** A Dir is a node of the directory of chunks of the backing array.
+     *  Its CHUNK children are Dirs, or Chunks at the bottom level; a child
+     *  is null if no entry below it has been written yet. */
+    static final class Dir {
+        final Object edit;
+        final Object[] children;
+
+        /** A directory node created under edit token edit, with children children. */
+        Dir(Object edit, Object[] children) {
+            this.edit = edit;
+            this.children = children;
+        }
+    }
+
+    /** Return an immutable view of this heap as it is now.
+     *  This operation takes constant time. */
+    public Snapshot<V, P> snapshot() {
+        Snapshot<V, P> s = new Snapshot<>(dir, shift, index, size);
+        edit = new Object();
+        return s;
+    }
+
+    /** Add v with priority p to the heap.
+     *  The expected time is logarithmic and the worst-case time is linear
+     *  in the size of the heap. Precondition: p is not null.
+     *  @throws IllegalArgumentException if v is already in the heap. */
+    public void add(V v, P p) throws IllegalArgumentException {
+        if (PersistentIndex.get(index, v) != null) {
+            throw new IllegalArgumentException("Value " + v + " is already in the heap");
+        }
+        set(size, new Entry<V, P>(v, p));
+        size++;
+        bubbleUp(size - 1);
+    }
+
+    /** Return the number of values in this heap.
+     *  This operation takes constant time. */
+    public int size() {
+        return size;
+    }
+
+    /** Return the value of this heap with lowest priority. Do not
+     *  change the heap. This operation takes constant time.
+     *  @throws NoSuchElementException if the heap is empty. */
+    public V peek() throws NoSuchElementException {
+        if (size == 0) {
+            throw new NoSuchElementException("The heap is empty");
+        }
+        return at(0).value;
+    }
+
+    /** Remove and return the element of this heap with lowest priority.
+     *  The expected time is logarithmic and the worst-case time is linear
+     *  in the size of the heap.
+     *  @throws NoSuchElementException if the heap is empty. */
+    public V poll() throws NoSuchElementException {
+        V v = peek();
+        removeAt(0);
+        return v;
+    }
+
+    /** Return true if the value v is in the heap, false otherwise.
+     *  The expected time is constant. */
+    public boolean contains(V v) {
+        return PersistentIndex.get(index, v) != null;
+    }
+
+    /** Change the priority of value v to p.
+     *  The expected time is logarithmic and the worst-case time is linear
+     *  in the size of the heap.
+     *  @throws IllegalArgumentException if v is not in the heap. */
+    public void changeAccessibilityPriority(V v, P p) throws IllegalArgumentException {
+        Integer k = PersistentIndex.get(index, v);
+        if (k == null) {
+            throw new IllegalArgumentException("Value " + v + " is not in the heap");
+        }
+        int cmp = p.compareTo(at(k).priority);
+        set(k, new Entry<V, P>(v, p));
+        if (cmp < 0) {
+            bubbleUp(k);
+        } else if (cmp > 0) {
+            bubbleDown(k);
+        }
+    }
+
+    /** Remove value v from the heap.
+     *  The expected time is logarithmic and the worst-case time is linear
+     *  in the size of the heap.
+     *  @throws IllegalArgumentException if v is not in the heap. */
+    public void remove(V v) throws IllegalArgumentException {
+        Integer k = PersistentIndex.get(index, v);
+        if (k == null) {
+            throw new IllegalArgumentException("Value " + v + " is not in the heap");
+        }
+        removeAt(k);
+    }
+
+    /** Remove c[k] from the heap. Precondition: 0 <= k < size */
+    private void removeAt(int k) {
+        Entry<V, P> gone = at(k);
+        int last = size - 1;
+        if (k < last) {
+            swap(k, last);
+        }
+        writableChunk(last >>> CHUNK_BITS).entries[last & (CHUNK - 1)] = null;
+        index = PersistentIndex.remove(index, edit, gone.value);
+        size--;
+        if (k < last) {
+            V moved = at(k).value;
+            bubbleUp(k);
+            bubbleDown(PersistentIndex.get(index, moved));
+        }
+    }
+
+    /** Bubble c[k] up in heap to its right place.
+     *  Precondition: Priority of every c[i] >= its parent's priority
+     *                except perhaps for c[k] */
+    private void bubbleUp(int k) {
+        while (k > 0) {
+            int parent = (k - 1) / 2;
+            if (at(k).priority.compareTo(at(parent).priority) >= 0) return;
+            swap(k, parent);
+            k = parent;
+        }
+    }
+
+    /** Bubble c[k] down in heap until it finds the right place.
+     *  If there is a choice to bubble down to both the left and
+     *  right children (because their priorities are equal), choose
+     *  the right child.
+     *  Precondition: Each c[i]'s priority <= its childrens' priorities
+     *                except perhaps for c[k] */
+    private void bubbleDown(int k) {
+        while (2 * k + 1 < size) {
+            int child = 2 * k + 1;
+            if (child + 1 < size
+                    && at(child + 1).priority.compareTo(at(child).priority) <= 0) {
+                child++;
+            }
+            if (at(k).priority.compareTo(at(child).priority) <= 0) return;
+            swap(k, child);
+            k = child;
+        }
+    }
+
+    /** Swap c[h] and c[k], keeping index up to date.
+     *  precondition: h and k are >= 0 and < size */
+    private void swap(int h, int k) {
+        Entry<V, P> eh = at(h);
+        Entry<V, P> ek = at(k);
+        set(h, ek);
+        set(k, eh);
+    }
+
+    /** Store e at c[i] and record its position in index. Precondition:
+     *  0 <= i <= size */
+    private void set(int i, Entry<V, P> e) {
+        writableChunk(i >>> CHUNK_BITS).entries[i & (CHUNK - 1)] = e;
+        index = PersistentIndex.put(index, edit, e.value, i);
+    }
+
+    /** Return chunk ci of the backing array, ready to be written: add a
+     *  level to the directory if it cannot reach chunk ci, copy the
+     *  directory nodes on the path to the chunk and the chunk itself if they
+     *  are shared with a snapshot, and create any that do not exist yet. */
+    private Chunk writableChunk(int ci) {
+        while ((ci >>> shift) >= CHUNK) {
+            Object[] children = new Object[CHUNK];
+            children[0] = dir;
+            dir = new Dir(edit, children);
+            shift += CHUNK_BITS;
+        }
+        dir = writable(dir);
+        Dir d = dir;
+        for (int s = shift; s > 0; s -= CHUNK_BITS) {
+            int i = (ci >>> s) & (CHUNK - 1);
+            Dir child = (Dir) d.children[i];
+            child = child == null ? new Dir(edit, new Object[CHUNK]) : writable(child);
+            d.children[i] = child;
+            d = child;
+        }
+        int i = ci & (CHUNK - 1);
+        Chunk ch = (Chunk) d.children[i];
+        if (ch == null) {
+            ch = new Chunk(edit, new Entry<?, ?>[CHUNK]);
+            d.children[i] = ch;
+        } else if (ch.edit != edit) {
+            ch = new Chunk(edit, ch.entries.clone());
+            d.children[i] = ch;
+            chunkCopies++;
+        }
+        return ch;
+    }
+
+    /** Return directory node d, or a copy of it under edit if d is shared
+     *  with a snapshot. */
+    private Dir writable(Dir d) {
+        if (d.edit == edit) {
+            return d;
+        }
+        dirCopies++;
+        return new Dir(edit, d.children.clone());
+    }
+
+    /** Return c[i]. Precondition: 0 <= i < size */
+    private Entry<V, P> at(int i) {
+        return entry(dir, shift, i);
+    }
+
+    /** Return entry i of the backing array with directory d, whose root is
+     *  at shift shift. */
+    @SuppressWarnings("unchecked")
+    private static <V, P> Entry<V, P> entry(Dir d, int shift, int i) {
+        int ci = i >>> CHUNK_BITS;
+        for (int s = shift; s > 0; s -= CHUNK_BITS) {
+            d = (Dir) d.children[(ci >>> s) & (CHUNK - 1)];
+        }
+        Chunk ch = (Chunk) d.children[ci & (CHUNK - 1)];
+        return (Entry<V, P>) ch.entries[i & (CHUNK - 1)];
+    }
+
+    /** A Snapshot is an immutable view of a SnapshotHeap at one moment.
+     *  Iterating over it gives its values in order of priority; values with
+     *  equal priorities come in no particular order. */
+    public static final class Snapshot<V, P extends Comparable<P>> implements Iterable<V> {
+        private final Dir dir;
+        private final int shift;
+        private final PersistentIndex.Node index;
+        private final int size;
+
+        /** A snapshot of the heap with directory d at shift sh, index idx
+         *  and size n. */
+        Snapshot(Dir d, int sh, PersistentIndex.Node idx, int n) {
+            dir = d;
+            shift = sh;
+            index = idx;
+            size = n;
+        }
+
+        /** Return the number of values in this snapshot. */
+        public int size() {
+            return size;
+        }
+
+        /** Return the value of this snapshot with lowest priority.
+         *  @throws NoSuchElementException if the snapshot is empty. */
+        public V peek() throws NoSuchElementException {
+            if (size == 0) {
+                throw new NoSuchElementException("The snapshot is empty");
+            }
+            return SnapshotHeap.<V, P>entry(dir, shift, 0).value;
+        }
+
+        /** Return true if the value v is in this snapshot, false otherwise. */
+        public boolean contains(V v) {
+            return PersistentIndex.get(index, v) != null;
+        }
+
+        /** Return the priority of value v in this snapshot.
+         *  The expected time is constant.
+         *  @throws IllegalArgumentException if v is not in this snapshot. */
+        public P priority(V v) throws IllegalArgumentException {
+            Integer k = PersistentIndex.get(index, v);
+            if (k == null) {
+                throw new IllegalArgumentException("Value " + v + " is not in the snapshot");
+            }
+            return SnapshotHeap.<V, P>entry(dir, shift, k).priority;
+        }
+
+        /** Return an iterator over the values of this snapshot in order of
+         *  priority. Taking the next value takes time logarithmic in the
+         *  number of values taken so far; the snapshot is not changed.
+         *  The iterator is not free in memory: after k values it holds up to
+         *  k + 1 boxed positions of candidates for the next value, about n/2
+         *  of them after a full pass over n values. */
+        public Iterator<V> iterator() {
+            // The next value is always the smallest of the children of the
+            // values already taken, so keep those candidates in a queue.
+            Comparator<Integer> byPriority = (h, k) ->
+                SnapshotHeap.<V, P>entry(dir, shift, h).priority
+                    .compareTo(SnapshotHeap.<V, P>entry(dir, shift, k).priority);
+            PriorityQueue<Integer> frontier = new PriorityQueue<>(byPriority);
+            if (size > 0) frontier.add(0);
+            return new Iterator<V>() {
+                public boolean hasNext() {
+                    return !frontier.isEmpty();
+                }
+
+                public V next() {
+                    if (frontier.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    int k = frontier.poll();
+                    if (2 * k + 1 < size) frontier.add(2 * k + 1);
+                    if (2 * k + 2 < size) frontier.add(2 * k + 2);
+                    return SnapshotHeap.<V, P>entry(dir, shift, k).value;
+                }
+            };
+        }
+    }
+}